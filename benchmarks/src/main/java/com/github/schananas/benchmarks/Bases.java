@@ -0,0 +1,60 @@
+package com.github.schananas.benchmarks;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.function.Function;
+
+/**
+ * The exercise bases live in the unnamed package, which can't be imported from a named one, and JMH refuses benchmarks
+ * in the unnamed package. Benchmarks therefore reach the bases reflectively, during setup only. Getters are bound
+ * through {@link LambdaMetafactory}, so calling them inside a benchmark costs the same as a direct call.
+ */
+final class Bases {
+
+    private Bases() {
+    }
+
+    static Object newInstance(String className) {
+        try {
+            return Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create " + className, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T invoke(Object target, String methodName) {
+        try {
+            Method method = target.getClass().getMethod(methodName);
+            return (T) method.invoke(target);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not call " + methodName + " on " + target.getClass(), e);
+        }
+    }
+
+    /**
+     * Binds the public no-arg instance method {@code methodName} of {@code className} as a {@code Function}.
+     */
+    @SuppressWarnings("unchecked")
+    static <T, R> Function<T, R> getter(String className, String methodName) {
+        try {
+            Class<?> type = Class.forName(className);
+            Method method = type.getMethod(methodName);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle handle = lookup.unreflect(method);
+            return (Function<T, R>) LambdaMetafactory.metafactory(lookup,
+                                                                  "apply",
+                                                                  MethodType.methodType(Function.class),
+                                                                  MethodType.methodType(Object.class, Object.class),
+                                                                  handle,
+                                                                  MethodType.methodType(method.getReturnType(), type))
+                                                     .getTarget()
+                                                     .invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not bind " + className + "." + methodName, e);
+        }
+    }
+}
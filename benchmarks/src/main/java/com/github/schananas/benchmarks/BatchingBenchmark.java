@@ -0,0 +1,151 @@
+package com.github.schananas.benchmarks;
+
+import com.github.schananas.batching.OrderedLanes;
+import com.github.schananas.batching.SlidingWindowAggregator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Operator overhead of the batching strategies from the Batching chapter, driven by {@code BatchingBase}'s own sources.
+ * <p>
+ * Time is virtual: every scheduler is replaced by a {@link VirtualTimeScheduler}, so {@code metrics()}' interval,
+ * {@code bufferTimeout} and {@code windowTimeout} timers cost a queue operation instead of a sleep, and
+ * {@code sendCommand}'s 250 ms round trip is stubbed with {@code Mono.empty()}. Each operation pushes
+ * {@code laps} times the base's stream through the strategy.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchingBenchmark {
+
+    private static final Duration LINGER = Duration.ofMillis(100);
+    private static final Duration METRICS_PERIOD = Duration.ofMillis(95);
+
+    @Param({"100"})
+    int laps;
+
+    @Param({"10"})
+    int batchSize;
+
+    VirtualTimeScheduler scheduler;
+    Flux<Byte> data;
+    Flux<Object> commands;
+    Function<Object, String> aggregateId;
+    Flux<Long> metrics;
+    long metricsCount;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scheduler = VirtualTimeScheduler.getOrSet();
+        Object base = Bases.newInstance("BatchingBase");
+        Flux<Byte> dataStream = Bases.invoke(base, "dataStream");
+        data = dataStream.repeat(laps - 1);
+        Flux<Object> commandStream = Bases.invoke(base, "inputCommandStream");
+        // materialize once, so the benchmark doesn't measure UUID generation
+        List<Object> commandList = commandStream.collectList().block();
+        commands = Flux.fromIterable(commandList).repeat(laps - 1);
+        aggregateId = Bases.getter("BatchingBase$Command", "getAggregateId");
+        metrics = Bases.invoke(base, "metrics");
+        metricsCount = 100L * laps;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        VirtualTimeScheduler.reset();
+    }
+
+    @Benchmark
+    public List<Byte> buffer() {
+        return data.buffer(batchSize)
+                   .blockLast();
+    }
+
+    @Benchmark
+    public List<Byte> bufferTimeout() {
+        return data.bufferTimeout(batchSize, LINGER)
+                   .blockLast();
+    }
+
+    @Benchmark
+    public Long window() {
+        return data.window(batchSize)
+                   .concatMap(Flux::count)
+                   .blockLast();
+    }
+
+    @Benchmark
+    public Long windowTimeout() {
+        return data.windowTimeout(batchSize, LINGER)
+                   .concatMap(Flux::count)
+                   .blockLast();
+    }
+
+    @Benchmark
+    public Object groupByConcatMap() {
+        return commands.groupBy(aggregateId)
+                       .flatMap(group -> group.concatMap(command -> Mono.empty()))
+                       .blockLast();
+    }
+
+    @Benchmark
+    public Object orderedLanes() {
+        return new OrderedLanes<>(4, aggregateId)
+                .process(commands, command -> Mono.empty())
+                .block();
+    }
+
+    @Benchmark
+    public Long metricsWindowSum() {
+        Mono<Long> total = metrics.take(metricsCount)
+                                  .window(Duration.ofSeconds(1))
+                                  .concatMap(window -> window.reduce(0L, Long::sum))
+                                  .reduce(0L, Long::sum)
+                                  .cache();
+        total.subscribe();
+        scheduler.advanceTimeBy(METRICS_PERIOD.multipliedBy(metricsCount + 1));
+        return total.block();
+    }
+
+    @Benchmark
+    public Long metricsBufferTimeoutSum() {
+        Mono<Long> total = metrics.take(metricsCount)
+                                  .bufferTimeout(batchSize, Duration.ofSeconds(1))
+                                  .map(batch -> batch.stream().mapToLong(Long::longValue).sum())
+                                  .reduce(0L, Long::sum)
+                                  .cache();
+        total.subscribe();
+        scheduler.advanceTimeBy(METRICS_PERIOD.multipliedBy(metricsCount + 1));
+        return total.block();
+    }
+
+    @Benchmark
+    public long metricsSlidingWindow() {
+        SlidingWindowAggregator aggregator = new SlidingWindowAggregator(Duration.ofMillis(100), 20, scheduler);
+        aggregator.record(metrics.take(metricsCount))
+                  .subscribe();
+        scheduler.advanceTimeBy(METRICS_PERIOD.multipliedBy(metricsCount + 1));
+        return aggregator.query(Duration.ofSeconds(1)).getSum();
+    }
+}
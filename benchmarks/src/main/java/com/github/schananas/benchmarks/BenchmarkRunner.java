@@ -0,0 +1,23 @@
+package com.github.schananas.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of {@code benchmarks.jar}. Takes the usual JMH command line, and always adds the GC profiler so that
+ * allocation rate ({@code gc.alloc.rate.norm}) is reported next to throughput.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+                                       .addProfiler(GCProfiler.class)
+                                       .build())
+                .run();
+    }
+}
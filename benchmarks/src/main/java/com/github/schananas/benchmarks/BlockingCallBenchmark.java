@@ -0,0 +1,83 @@
+package com.github.schananas.benchmarks;
+
+import com.github.schananas.execution.VirtualThreadScheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to get {@code calls} concurrent blocking calls through a scheduler, like
+ * {@code ExecutionControlBase.blockingCall()} offloaded with {@code subscribeOn}. The call sleeps {@code blockMillis} instead of its 2 s, so the
+ * {@code boundedElastic} run, which can only block {@code 10 * cores} threads at once, finishes in reasonable time.
+ * <p>
+ * {@code virtual} allows all calls to block at once; {@code virtualCapped} limits them to the {@code boundedElastic}
+ * thread cap, to show the cost of the virtual threads themselves.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockingCallBenchmark {
+
+    @Param({"10000"})
+    int calls;
+
+    @Param({"10"})
+    long blockMillis;
+
+    @Param({"boundedElastic", "virtual", "virtualCapped"})
+    String scheduler;
+
+    Scheduler target;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        target = switch (scheduler) {
+            case "boundedElastic" -> Schedulers.newBoundedElastic(Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE,
+                                                                  Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE,
+                                                                  "benchmark-elastic");
+            case "virtual" -> VirtualThreadScheduler.create("benchmark-virtual", calls);
+            case "virtualCapped" -> VirtualThreadScheduler.create("benchmark-virtual-capped",
+                                                                  Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE);
+            default -> throw new IllegalArgumentException("Unknown scheduler " + scheduler);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        target.dispose();
+    }
+
+    @Benchmark
+    public Long blockingCalls() {
+        return Flux.range(0, calls)
+                   .flatMap(i -> Mono.fromCallable(this::blockingCall)
+                                     .subscribeOn(target),
+                            calls)
+                   .count()
+                   .block();
+    }
+
+    private Integer blockingCall() throws InterruptedException {
+        Thread.sleep(blockMillis);
+        return 1;
+    }
+}
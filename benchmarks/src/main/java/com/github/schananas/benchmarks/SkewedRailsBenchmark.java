@@ -0,0 +1,121 @@
+package com.github.schananas.benchmarks;
+
+import com.github.schananas.execution.JsonCodec;
+import com.github.schananas.execution.OrderedParallel;
+import com.github.schananas.execution.WorkStealingRails;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ordered parallel serialization of {@code ExecutionControlBase.eventProcessor()} events when a few of them are much
+ * more expensive than the rest: one event in {@code slowEvery} burns {@code slowFactor} times the CPU of the others
+ * before being serialized.
+ * <p>
+ * {@code OrderedParallel} deals events to rails round-robin, so a slow event delays everything dealt to its rail after
+ * it; {@code WorkStealingRails} lets the idle rails take those over. Events are materialized once, so the benchmark
+ * doesn't measure UUID generation or the base's logging. Each operation serializes {@code laps} times the 500 events.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SkewedRailsBenchmark {
+
+    private static final long BASE_TOKENS = 1_000;
+
+    @Param({"10"})
+    int laps;
+
+    @Param({"4"})
+    int rails;
+
+    @Param({"20"})
+    int slowEvery;
+
+    @Param({"50"})
+    int slowFactor;
+
+    Scheduler scheduler;
+    JsonCodec<Object> codec;
+    Flux<Costed> events;
+    WorkStealingRails workStealing;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scheduler = Schedulers.newParallel("benchmark-rails", rails);
+        codec = new JsonCodec<>(Object.class);
+        Object base = Bases.newInstance("ExecutionControlBase");
+        Flux<Object> eventProcessor = Bases.invoke(base, "eventProcessor");
+        List<Object> eventList = eventProcessor.collectList().block();
+        List<Costed> costed = new ArrayList<>(eventList.size());
+        for (int i = 0; i < eventList.size(); i++) {
+            long tokens = i % slowEvery == 0 ? BASE_TOKENS * slowFactor : BASE_TOKENS;
+            costed.add(new Costed(eventList.get(i), tokens));
+        }
+        events = Flux.fromIterable(costed).repeat(laps - 1);
+        workStealing = new WorkStealingRails(rails, 32 * rails, scheduler);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.dispose();
+    }
+
+    @Benchmark
+    public Long sequential() {
+        return events.map(this::serialize)
+                     .count()
+                     .block();
+    }
+
+    @Benchmark
+    public Long orderedParallel() {
+        return OrderedParallel.map(events, this::serialize, rails, 32, scheduler)
+                              .count()
+                              .block();
+    }
+
+    @Benchmark
+    public Long workStealing() {
+        return workStealing.map(events, this::serialize)
+                           .count()
+                           .block();
+    }
+
+    private String serialize(Costed event) {
+        Blackhole.consumeCPU(event.tokens);
+        return codec.encode(event.event);
+    }
+
+    static final class Costed {
+
+        final Object event;
+        final long tokens;
+
+        Costed(Object event, long tokens) {
+            this.event = event;
+            this.tokens = tokens;
+        }
+    }
+}
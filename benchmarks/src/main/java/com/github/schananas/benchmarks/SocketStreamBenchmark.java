@@ -0,0 +1,76 @@
+package com.github.schananas.benchmarks;
+
+import com.github.schananas.backpressure.SocketStream;
+import com.github.schananas.backpressure.SocketStreamServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages per millisecond from {@code BackpressureBase.remoteMessageProducer()} through a {@link SocketStream} over
+ * loopback, against the same producer in process behind a {@code limitRate} of the same {@code prefetch}. Each
+ * operation opens a connection and takes {@code MESSAGES} messages, so connection setup is part of the cost, as it is
+ * for a subscriber.
+ * <p>
+ * Small prefetches show the round trip a credit frame costs; once a window covers the time it takes to arrive, the
+ * socket run is bound by copying and framing instead.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SocketStreamBenchmark {
+
+    private static final int MESSAGES = 10_000;
+
+    @Param({"8", "256", "4096"})
+    int prefetch;
+
+    Flux<String> remoteMessages;
+    SocketStreamServer<String> server;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Object base = Bases.newInstance("BackpressureBase");
+        remoteMessages = Bases.invoke(base, "remoteMessageProducer");
+        server = Bases.invoke(base, "startRemoteMessageServer");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public String inProcess() {
+        return remoteMessages.limitRate(prefetch)
+                             .take(MESSAGES)
+                             .blockLast();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public String socket() {
+        return SocketStream.connect(server.address(), bytes -> new String(bytes, StandardCharsets.UTF_8), prefetch)
+                           .take(MESSAGES)
+                           .blockLast();
+    }
+}
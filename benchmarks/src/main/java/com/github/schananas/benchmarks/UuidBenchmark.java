@@ -0,0 +1,105 @@
+package com.github.schananas.benchmarks;
+
+import com.github.schananas.ids.Ids;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link UUID#randomUUID()}, which {@code remoteMessageProducer()}, {@code eventProcessor()} and the
+ * {@code CombiningPublishersBase} producers call per element, against {@link Ids#timeOrdered()}, with 1 to 64 threads
+ * generating at once. JMH can't take the thread count as a parameter, hence one method per count.
+ * <p>
+ * {@code randomUUID()} shares one {@code SecureRandom}, so its total throughput stays flat or drops as threads are
+ * added, while {@code timeOrdered()} keeps its state per thread and scales with the cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UuidBenchmark {
+
+    private static final int BATCH = 64;
+
+    @State(Scope.Thread)
+    public static class Batch {
+
+        final UUID[] ids = new UUID[BATCH];
+    }
+
+    @Benchmark
+    @Threads(1)
+    public UUID randomUuid1() {
+        return UUID.randomUUID();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public UUID randomUuid4() {
+        return UUID.randomUUID();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public UUID randomUuid16() {
+        return UUID.randomUUID();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public UUID randomUuid64() {
+        return UUID.randomUUID();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public UUID timeOrdered1() {
+        return Ids.timeOrdered();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public UUID timeOrdered4() {
+        return Ids.timeOrdered();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public UUID timeOrdered16() {
+        return Ids.timeOrdered();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public UUID timeOrdered64() {
+        return Ids.timeOrdered();
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(BATCH)
+    public UUID[] timeOrderedBatch1(Batch batch) {
+        Ids.timeOrdered(batch.ids);
+        return batch.ids;
+    }
+
+    @Benchmark
+    @Threads(64)
+    @OperationsPerInvocation(BATCH)
+    public UUID[] timeOrderedBatch64(Batch batch) {
+        Ids.timeOrdered(batch.ids);
+        return batch.ids;
+    }
+}
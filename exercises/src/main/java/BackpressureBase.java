@@ -1,7 +1,14 @@
+import com.github.schananas.backpressure.AdaptiveDemand;
+import com.github.schananas.backpressure.DemandTracer;
+import com.github.schananas.backpressure.SocketStream;
+import com.github.schananas.backpressure.SocketStreamServer;
+import com.github.schananas.backpressure.SpillingBuffer;
+import com.github.schananas.ids.Ids;
 import reactor.core.publisher.Flux;
 import reactor.test.publisher.TestPublisher;
 
-import java.util.UUID;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author Stefan Dragisic
@@ -14,25 +21,75 @@ public class BackpressureBase {
         return pub1.flux();
     }
 
+    /**
+     * {@link #messageStream1()} with every request, element and cancellation recorded into {@code tracer}.
+     */
+    public Flux<String> tracedMessageStream1(DemandTracer tracer) {
+        return tracer.trace(messageStream1());
+    }
+
     TestPublisher<String> pub2 = TestPublisher.create();
 
     public Flux<String> messageStream2() {
         return pub2.flux();
     }
 
+    /**
+     * {@link #messageStream2()} prefetched in batches that {@code demand} sizes from how fast they are consumed.
+     */
+    public Flux<String> adaptiveMessageStream2(AdaptiveDemand demand) {
+        return demand.limitRate(messageStream2());
+    }
+
     TestPublisher<String> pub3 = TestPublisher.createNoncompliant(TestPublisher.Violation.REQUEST_OVERFLOW);
 
     public Flux<String> messageStream3() {
         return pub3.flux();
     }
 
+    /**
+     * {@link #messageStream3()} buffered by {@code buffer}, which spills to disk what doesn't fit in memory.
+     */
+    public Flux<String> spillingMessageStream3(SpillingBuffer<String> buffer) {
+        return buffer.buffer(messageStream3());
+    }
+
     TestPublisher<String> pub4 = TestPublisher.createNoncompliant(TestPublisher.Violation.REQUEST_OVERFLOW);
 
     public Flux<String> messageStream4() {
         return pub4.flux();
     }
 
+    /**
+     * {@link #messageStream4()} buffered by {@code buffer}, which spills to disk what doesn't fit in memory.
+     */
+    public Flux<String> spillingMessageStream4(SpillingBuffer<String> buffer) {
+        return buffer.buffer(messageStream4());
+    }
+
     public Flux<String> remoteMessageProducer() {
-        return Flux.generate(s -> s.next("MESSAGE#" + UUID.randomUUID()));
+        return Flux.generate(s -> s.next("MESSAGE#" + Ids.uuid()));
+    }
+
+    /**
+     * {@link #remoteMessageProducer()} prefetched in batches that {@code demand} sizes from how fast they are consumed.
+     */
+    public Flux<String> adaptiveRemoteMessageProducer(AdaptiveDemand demand) {
+        return demand.limitRate(remoteMessageProducer());
+    }
+
+    /**
+     * Serves {@link #remoteMessageProducer()} on a loopback port, for {@link #socketMessageProducer}.
+     */
+    public SocketStreamServer<String> startRemoteMessageServer() {
+        return SocketStreamServer.start(this::remoteMessageProducer, message -> message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Messages from a {@link #startRemoteMessageServer()} at {@code address}, with at most {@code prefetch} of them in
+     * flight over the socket.
+     */
+    public Flux<String> socketMessageProducer(InetSocketAddress address, int prefetch) {
+        return SocketStream.connect(address, bytes -> new String(bytes, StandardCharsets.UTF_8), prefetch);
     }
 }
@@ -1,5 +1,19 @@
+import com.github.schananas.batching.AdaptiveBatcher;
+import com.github.schananas.batching.ByteChunk;
+import com.github.schananas.batching.ByteChunkPool;
+import com.github.schananas.batching.ChunkWriter;
+import com.github.schananas.batching.CoalescingGateway;
+import com.github.schananas.batching.CommandJournal;
+import com.github.schananas.batching.IdleEvictingGroups;
+import com.github.schananas.batching.OrderedLanes;
+import com.github.schananas.batching.SlidingWindowAggregator;
+import com.github.schananas.execution.KeyAffinityScheduler;
+import com.github.schananas.logging.AsyncLogSink;
+import com.github.schananas.sharding.ShardedGateway;
+import org.slf4j.Logger;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
 import reactor.core.scheduler.Schedulers;
 
 import java.time.Duration;
@@ -12,21 +26,91 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class BatchingBase {
 
+    private static final Logger LOG = AsyncLogSink.shared().logger(BatchingBase.class);
+
     AtomicInteger diskCounter = new AtomicInteger(0);
 
+    /**
+     * When set, {@link #writeToDisk(List)} appends chunks to a real file instead of simulating the write.
+     */
+    ChunkWriter chunkWriter;
+
+    ByteChunkPool chunkPool = new ByteChunkPool(10, 16);
+
     public Flux<Byte> dataStream() {
         return Flux.range(0, 99).map(i -> Byte.parseByte(String.valueOf(i)));
     }
 
+    /**
+     * Same bytes as {@link #dataStream()}, packed into pooled chunks of up to {@code chunkPool.chunkCapacity()} bytes
+     * instead of being boxed one by one. Every chunk must be handed to {@link #writeChunkToDisk(ByteChunk)} or
+     * released.
+     */
+    public Flux<ByteChunk> chunkedDataStream() {
+        return Flux.generate(() -> 0, (next, sink) -> {
+            ByteChunk chunk = chunkPool.acquire();
+            while (next < 99 && !chunk.isFull()) {
+                chunk.put((byte) next.intValue());
+                next++;
+            }
+            sink.next(chunk);
+            if (next == 99) {
+                sink.complete();
+            }
+            return next;
+        });
+    }
+
+    /**
+     * Writes a pooled chunk and returns it to the pool once the write completed or failed. A cancelled write may still
+     * be reading the chunk, so it is not returned to the pool and the pool allocates a replacement instead.
+     */
+    public Mono<Void> writeChunkToDisk(ByteChunk chunk) {
+        Mono<Void> write;
+        if (chunkWriter != null) {
+            write = chunkWriter.write(chunk.buffer())
+                               .doOnNext(r -> LOG.info("Written to disk, chunk size: {}, took: {}",
+                                                       chunk.size(),
+                                                       r.getLatency()))
+                               .then();
+        } else {
+            write = Mono.delay(Duration.ofMillis(50L * chunk.size()))
+                        .doOnNext(s -> LOG.info("Written to disk, chunk size: {}", chunk.size()))
+                        .then();
+        }
+        return write.doFirst(() -> diskCounter.incrementAndGet())
+                    .doFinally(signal -> {
+                        if (signal != SignalType.CANCEL) {
+                            chunk.release();
+                        }
+                    });
+    }
+
     public Mono<Void> writeToDisk(List<Byte> chunk) {
+        if (chunkWriter != null) {
+            return chunkWriter.write(chunk)
+                              .doFirst(() -> diskCounter.incrementAndGet())
+                              .doOnNext(r -> LOG.info("Written to disk, chunk size: {}, took: {}",
+                                                      chunk.size(),
+                                                      r.getLatency()))
+                              .then();
+        }
         return Flux.fromIterable(chunk)
                    .doFirst(() -> diskCounter.incrementAndGet())
                    .delayElements(Duration.ofMillis(50))
-                   .doOnNext(s -> System.out.println("Written to disk, chunk size: " + chunk.size()))
+                   .doOnNext(s -> LOG.info("Written to disk, chunk size: {}", chunk.size()))
                    .then();
     }
 
 
+    /**
+     * Writes {@link #dataStream()} to disk in batches sized by {@code batcher}, which adapts to how long
+     * {@link #writeToDisk(List)} takes.
+     */
+    public Mono<Void> writeToDiskAdaptively(AdaptiveBatcher batcher) {
+        return batcher.writeAll(dataStream(), this::writeToDisk);
+    }
+
     public Flux<Command> inputCommandStream() {
         return Flux.range(0, 100)
                    .map(i -> new Command("000000" + i % 10, UUID.randomUUID().toString()));
@@ -34,13 +118,92 @@ public class BatchingBase {
 
     public Mono<Void> sendCommand(Command command) {
         return Mono.just(command)
-                   .doOnNext(s -> System.out.println("Sending command... aggregateId#" + command.getAggregateId()))
+                   .doOnNext(s -> LOG.info("Sending command... aggregateId#{}", command.getAggregateId()))
+                   .delayElement(Duration.ofMillis(250))
+                   .doOnNext(s -> LOG.info("Command sent... aggregateId#{}", command.getAggregateId()))
+                   .then()
+                   .subscribeOn(Schedulers.parallel());
+    }
+
+    /**
+     * Appends {@code command} to {@code journal} before sending it, and acknowledges it once it was sent, so a command
+     * that was accepted is sent at least once even if the process dies in between.
+     */
+    public Mono<Void> sendCommandJournaled(CommandJournal journal, Command command) {
+        return journal.append(command.getAggregateId(), command.getPayload())
+                      .flatMap(seq -> sendCommand(command).then(journal.acknowledge(seq)));
+    }
+
+    /**
+     * Sends, in their original order, commands the journal recovered as appended but never acknowledged.
+     */
+    public Mono<Void> replayJournal(CommandJournal journal) {
+        return journal.unacknowledged()
+                      .concatMap(entry -> sendCommand(new Command(entry.getAggregateId(), entry.getPayload()))
+                              .then(journal.acknowledge(entry.getSeq())))
+                      .then();
+    }
+
+    /**
+     * Sends all {@code commands} of one aggregate, in order, in a single round trip.
+     */
+    public Mono<Void> sendCommands(String aggregateId, List<Command> commands) {
+        return Mono.just(commands)
+                   .doOnNext(s -> LOG.info("Sending {} commands... aggregateId#{}", commands.size(), aggregateId))
                    .delayElement(Duration.ofMillis(250))
-                   .doOnNext(s -> System.out.println("Command sent... aggregateId#" + command.getAggregateId()))
+                   .doOnNext(s -> LOG.info("Commands sent... aggregateId#{}", aggregateId))
                    .then()
                    .subscribeOn(Schedulers.parallel());
     }
 
+    /**
+     * Gateway that coalesces commands queued for the same aggregate into one {@link #sendCommands(String, List)}. A
+     * failed batch fails all its commands: commands aren't idempotent, so they aren't retried one by one.
+     */
+    public CoalescingGateway<Command> coalescingGateway(int maxBatchSize) {
+        return new CoalescingGateway<>(Command::getAggregateId, this::sendCommands, maxBatchSize);
+    }
+
+    /**
+     * Sends {@link #inputCommandStream()} through {@code gateway}, emitting whether each command was sent.
+     */
+    public Flux<CoalescingGateway.Outcome<Command>> sendCommands(CoalescingGateway<Command> gateway) {
+        return gateway.process(inputCommandStream(), 256);
+    }
+
+    /**
+     * Sends {@link #inputCommandStream()} through {@code lanes}, keyed by aggregate id, so commands of one aggregate are
+     * sent sequentially while a bounded number of lanes send in parallel.
+     */
+    public Mono<Void> sendCommands(OrderedLanes<Command> lanes) {
+        return lanes.process(inputCommandStream(), this::sendCommand);
+    }
+
+    /**
+     * Sends {@link #inputCommandStream()} grouped by aggregate id, dropping groups of aggregates that went quiet.
+     */
+    public Mono<Void> sendCommands(IdleEvictingGroups<Command> groups) {
+        return groups.process(inputCommandStream(), this::sendCommand, 256)
+                     .then();
+    }
+
+    /**
+     * Sends {@link #inputCommandStream()} to the workers of {@code gateway}, sharded by aggregate id.
+     */
+    public Mono<Void> sendCommands(ShardedGateway<Command> gateway) {
+        return gateway.process(inputCommandStream(), 256);
+    }
+
+    /**
+     * Sends {@link #inputCommandStream()} from the worker each aggregate id is pinned to, one command at a time per
+     * worker, so commands of one aggregate are always dispatched by the same thread, in order.
+     */
+    public Mono<Void> sendCommands(KeyAffinityScheduler affinity) {
+        return affinity.partition(inputCommandStream(), Command::getAggregateId, 32)
+                       .concatMap(this::sendCommand)
+                       .then();
+    }
+
     public static class Command {
 
         private final String aggregateId;
@@ -63,4 +226,11 @@ public class BatchingBase {
     public Flux<Long> metrics() {
         return Flux.interval(Duration.ofMillis(95));
     }
+
+    /**
+     * {@link #metrics()}, with every reading also recorded into {@code aggregator}.
+     */
+    public Flux<Long> metrics(SlidingWindowAggregator aggregator) {
+        return aggregator.record(metrics());
+    }
 }
@@ -1,3 +1,5 @@
+import com.github.schananas.logging.AsyncLogSink;
+import org.slf4j.Logger;
 import reactor.core.publisher.Flux;
 
 import java.time.Duration;
@@ -8,10 +10,12 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class BroadcastingBase {
 
+    private static final Logger LOG = AsyncLogSink.shared().logger(BroadcastingBase.class);
+
     public Flux<String> systemUpdates() {
         return Flux.just("RESTARTED", "UNHEALTHY", "HEALTHY", "DISK_SPACE_LOW", "OOM_DETECTED", "CRASHED", "UNKNOWN")
                    .delayElements(Duration.ofSeconds(1))
-                   .doOnNext(n -> System.out.println("Broadcast update: " + n));
+                   .doOnNext(n -> LOG.info("Broadcast update: {}", n));
     }
 
     AtomicInteger counter = new AtomicInteger(0);
@@ -1,3 +1,6 @@
+import com.github.schananas.ids.Ids;
+import com.github.schananas.logging.AsyncLogSink;
+import org.slf4j.Logger;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
@@ -12,6 +15,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class CombiningPublishersBase {
 
+    private static final Logger LOG = AsyncLogSink.shared().logger(CombiningPublishersBase.class);
+
     AtomicInteger taskCounter = new AtomicInteger(0);
     AtomicBoolean localCacheCalled = new AtomicBoolean(false);
     AtomicInteger consumedSpamCounter = new AtomicInteger(0);
@@ -32,7 +37,7 @@ public class CombiningPublishersBase {
         return Flux.range(1, 10)
                    //.delayElements(Duration.ofMillis(250))
                    .map(i -> Mono.<Void>fromRunnable(() -> {
-                       System.out.println("Executing task: #" + i);
+                       LOG.info("Executing task: #{}", i);
                        taskCounter.incrementAndGet();
                    }).subscribeOn(Schedulers.parallel()));
     }
@@ -41,20 +46,20 @@ public class CombiningPublishersBase {
         return Mono.just(Flux.range(1, 10)
                              .delayElements(Duration.ofMillis(250))
                              .map(i ->
-                                          new Message("chunk:" + i, UUID.randomUUID().toString()))
-                             .doOnNext(msg -> System.out.println("-> msg#" + msg.metaData))
-                             .doOnSubscribe(s -> System.out.println("Streaming started..."))
+                                          new Message("chunk:" + i, Ids.uuid().toString()))
+                             .doOnNext(msg -> LOG.info("-> msg#{}", msg.metaData))
+                             .doOnSubscribe(s -> LOG.info("Streaming started..."))
                              .delaySubscription(Duration.ofMillis(750))
-                             .doOnComplete(() -> System.out.println("Streaming finished!")))
-                   .doOnSubscribe(s -> System.out.println("Connecting to the service..."));
+                             .doOnComplete(() -> LOG.info("Streaming finished!")))
+                   .doOnSubscribe(s -> LOG.info("Connecting to the service..."));
     }
 
     public Flux<Integer> numberService1() {
-        return Flux.range(1, 3).doOnNext(System.out::println);
+        return Flux.range(1, 3).doOnNext(n -> LOG.info("{}", n));
     }
 
     public Flux<Integer> numberService2() {
-        return Flux.range(4, 4).doOnNext(System.out::println);
+        return Flux.range(4, 4).doOnNext(n -> LOG.info("{}", n));
     }
 
     public Flux<String> listAllUsers() {
@@ -64,7 +69,7 @@ public class CombiningPublishersBase {
 
     public Flux<String> getStocksLocalCache() {
         return Flux.defer(() -> {
-            System.out.println("(LocalCache) No stocks found in local cache!");
+            LOG.info("(LocalCache) No stocks found in local cache!");
             localCacheCalled.set(true);
             return Flux.empty();
         });
@@ -73,53 +78,53 @@ public class CombiningPublishersBase {
     public Flux<String> getStocksRest() {
         return Flux.range(10, 6)
                    .map(i -> i + "$")
-                   .doOnNext(n -> System.out.println("(REST) Got stock, price: " + n))
+                   .doOnNext(n -> LOG.info("(REST) Got stock, price: {}", n))
                    .delaySubscription(Duration.ofMillis(100));
     }
 
     public Flux<String> getStocksGrpc() {
         return Flux.range(1, 5)
                    .map(i -> i + "$")
-                   .doOnNext(n -> System.out.println("(GRPC) Got stock, price: " + n))
+                   .doOnNext(n -> LOG.info("(GRPC) Got stock, price: {}", n))
                    .delaySubscription(Duration.ofMillis(30));
     }
 
     public Flux<Message> mailBoxPrimary() {
         return Flux.range(1, 3)
                    .map(i -> new Message("spam", "0x" + i))
-                   .doOnNext(n -> System.out.println("Message[spam, 0x" + n.payload + "]"))
+                   .doOnNext(n -> LOG.info("Message[spam, 0x{}]", n.payload))
                    .doOnNext(n -> consumedSpamCounter.incrementAndGet());
     }
 
     public Flux<Message> mailBoxSecondary() {
         return Flux.range(1, 2)
                    .map(i -> new Message("job-offer", "please join as in google!"))
-                   .doOnNext(n -> System.out.println("Message[job-offer, please join as in google!]"));
+                   .doOnNext(n -> LOG.info("Message[job-offer, please join as in google!]"));
     }
 
     public Flux<String> userSearchInput() {
         return Flux.just("r", "re", "rea", "reac", "reac", "react", "reacto", "reactor")
                    .concatWith(Flux.just("reactive").delaySubscription(Duration.ofMillis(500)))
-                   .doOnNext(n -> System.out.println("Typed: " + n));
+                   .doOnNext(n -> LOG.info("Typed: {}", n));
     }
 
     public Mono<String> autoComplete(String word) {
         return Mono.just(word + " project")
-                   .doOnNext(n -> System.out.println("Suggestion: " + n))
+                   .doOnNext(n -> LOG.info("Suggestion: {}", n))
                    .delaySubscription(Duration.ofMillis(100));
     }
 
     public Mono<Void> openFile() {
         return Mono.<Void>fromRunnable(() -> {
             fileOpened.set(true);
-            System.out.println("Opening file...");
+            LOG.info("Opening file...");
         }).delaySubscription(Duration.ofMillis(100));
     }
 
     public Mono<Void> writeToFile(String content) {
         return Mono.<Void>fromRunnable(() -> {
             writtenToFile.set(true);
-            System.out.println("Writing: " + content);
+            LOG.info("Writing: {}", content);
         }).delaySubscription(Duration.ofMillis(1000));
     }
 
@@ -130,21 +135,21 @@ public class CombiningPublishersBase {
             } else {
                 return Flux.error(new IllegalStateException("File is not opened!"));
             }
-        }).doOnNext(n -> System.out.println("Next line: " + n));
+        }).doOnNext(n -> LOG.info("Next line: {}", n));
     }
 
 
     public Mono<Void> closeFile() {
         return Mono.<Void>fromRunnable(() -> {
             fileClosed.set(true);
-            System.out.println("File closed!");
+            LOG.info("File closed!");
         }).delaySubscription(Duration.ofMillis(500));
     }
 
     public Flux<Mono<String>> tasksToExecute() {
         return Flux.range(1, 3)
                    .map(i -> Mono.fromSupplier(() -> {
-                                     System.out.println("Executing task: #" + i);
+                                     LOG.info("Executing task: #{}", i);
                                      return "task#" + i;
                                  })
                                  .delaySubscription(Duration.ofMillis(250))
@@ -153,19 +158,19 @@ public class CombiningPublishersBase {
 
     public Mono<Void> commitTask(String taskId) {
         committedTasksCounter.incrementAndGet();
-        return Mono.fromRunnable(() -> System.out.println("Task committed:" + taskId));
+        return Mono.fromRunnable(() -> LOG.info("Task committed:{}", taskId));
     }
 
     public Flux<String> microsoftTitles() {
         return Flux.just("windows12", "bing2", "office366")
-                   .doOnNext(title -> System.out.println("Realising: " + title))
+                   .doOnNext(title -> LOG.info("Realising: {}", title))
                    .delayElements(Duration.ofMillis(150))
                    .delaySubscription(Duration.ofMillis(250));
     }
 
     public Flux<String> blizzardTitles() {
         return Flux.just("wow2", "overwatch3", "warcraft4")
-                   .doOnNext(title -> System.out.println("Realising: " + title))
+                   .doOnNext(title -> LOG.info("Realising: {}", title))
                    .delayElements(Duration.ofMillis(150))
                    .delaySubscription(Duration.ofMillis(350));
     }
@@ -173,15 +178,15 @@ public class CombiningPublishersBase {
     public Flux<Chassis> carChassisProducer() {
         return Flux.range(1, 3)
                    .delayElements(Duration.ofMillis(350))
-                   .map(i -> new Chassis(UUID.randomUUID()))
-                   .doOnNext(c -> System.out.println("Chassis produced! #" + c.vin));
+                   .map(i -> new Chassis(Ids.uuid()))
+                   .doOnNext(c -> LOG.info("Chassis produced! #{}", c.vin));
     }
 
     public Flux<Engine> carEngineProducer() {
         return Flux.range(1, 3)
                    .delayElements(Duration.ofMillis(550))
-                   .map(i -> new Engine(UUID.randomUUID()))
-                   .doOnNext(e -> System.out.println("Engine produced! #" + e.vin));
+                   .map(i -> new Engine(Ids.uuid()))
+                   .doOnNext(e -> LOG.info("Engine produced! #{}", e.vin));
     }
 
     public Mono<String> sourceA() {
@@ -254,16 +259,16 @@ public class CombiningPublishersBase {
         public static Mono<Flux<String>> startStreaming() {
             return Mono.just(Flux.range(1, 20).map(i -> "Message #" + i)
                        .delayElements(Duration.ofMillis(250))
-                       .doOnNext(s -> System.out.println("Sending message: " + s))
+                       .doOnNext(s -> LOG.info("Sending message: {}", s))
                        .doFirst(() -> {
-                           System.out.println("Streaming started!");
+                           LOG.info("Streaming started!");
                            isOpen.set(true);
                        }));
         }
 
         public static Mono<Void> closeConnection() {
             return Mono.empty().doFirst(() -> {
-                System.out.println("Streaming stopped! Cleaning up...");
+                LOG.info("Streaming stopped! Cleaning up...");
                 cleanedUp.set(true);
             }).then();
         }
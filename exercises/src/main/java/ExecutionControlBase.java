@@ -1,9 +1,28 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.github.schananas.execution.GroupCommit;
+import com.github.schananas.execution.HedgedExecutor;
+import com.github.schananas.execution.JsonCodec;
+import com.github.schananas.execution.KeyAffinityScheduler;
+import com.github.schananas.execution.OrderedParallel;
+import com.github.schananas.execution.TokenBucket;
+import com.github.schananas.execution.VirtualThreadScheduler;
+import com.github.schananas.execution.WorkStealingRails;
+import com.github.schananas.ids.Ids;
+import com.github.schananas.logging.AsyncLogSink;
+import com.github.schananas.store.MappedEventStore;
+import org.slf4j.Logger;
+import reactor.core.Exceptions;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.Duration;
-import java.util.UUID;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -13,34 +32,65 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class ExecutionControlBase {
 
+    private static final Logger LOG = AsyncLogSink.shared().logger(ExecutionControlBase.class);
+
     public Flux<String> readNotifications() {
         return Flux.just("New SMS message!", "Missed call!", "New email!", "Update available!", "New calendar event!");
     }
 
+    /**
+     * {@link #readNotifications()}, requested only as fast as {@code bucket} hands out tokens: a burst of up to
+     * {@code bucket.burst()} notifications, then one per refill.
+     */
+    public Flux<String> readNotifications(TokenBucket bucket) {
+        return bucket.limit(readNotifications());
+    }
+
     public Flux<String> semaphore() {
         return Flux.interval(
                 Duration.ofMillis(2250)
-        ).map(s -> "go").doOnNext(s -> System.out.println("Semaphore says: " + s));
+        ).map(s -> "go").doOnNext(s -> LOG.info("Semaphore says: {}", s));
     }
 
     public Flux<Mono<String>> tasks() {
         return Flux.just(Mono.just("1")
-                             .doOnNext(n -> System.out.println("Executing task #1..."))
+                             .doOnNext(n -> LOG.info("Executing task #1..."))
                              .delayElement(Duration.ofMillis(900))
                              .subscribeOn(Schedulers.boundedElastic()),
                          Mono.just("2")
-                             .doOnNext(n -> System.out.println("Executing task #2..."))
+                             .doOnNext(n -> LOG.info("Executing task #2..."))
                              .delayElement(Duration.ofMillis(1000))
                              .subscribeOn(Schedulers.boundedElastic()),
                          Mono.just("3")
-                             .doOnNext(n -> System.out.println("Executing task #3..."))
+                             .doOnNext(n -> LOG.info("Executing task #3..."))
                              .delayElement(Duration.ofMillis(800))
                              .subscribeOn(Schedulers.boundedElastic())
         );
     }
 
+    /**
+     * Virtual threads for {@link #blockingCall()}, up to 1000 of them blocked at once.
+     */
+    static final VirtualThreadScheduler BLOCKING_CALLS = VirtualThreadScheduler.create("blocking-call", 1000);
+
+    /**
+     * {@link #blockingCall()} offloaded to {@link #BLOCKING_CALLS}.
+     */
+    public Mono<Void> blockingCallOnVirtualThread() {
+        return Mono.<Void>fromRunnable(ExecutionControlBase::blockingCall)
+                   .subscribeOn(BLOCKING_CALLS);
+    }
+
+    /**
+     * Runs {@link #tasks()} concurrently through {@code executor}, which hedges the slow ones and enforces its
+     * deadline on all of them.
+     */
+    public Flux<String> hedgedTasks(HedgedExecutor executor) {
+        return executor.execute(tasks(), 3);
+    }
+
     public static void blockingCall() {
-        System.out.println("Executing blocking task...");
+        LOG.info("Executing blocking task...");
         try {
             Thread.sleep(2000);
         } catch (InterruptedException e) {
@@ -50,19 +100,121 @@ public class ExecutionControlBase {
 
     public Flux<Event> eventProcessor() {
         return Flux.range(0, 500)
-                   .doOnNext(n -> System.out.println("Processing event #" + n))
-                   .map(i -> new Event(i % 2 == 0 ? "event#:" + i : "", "Event #" + UUID.randomUUID()));
+                   .doOnNext(n -> LOG.info("Processing event #{}", n))
+                   .map(i -> new Event(i % 2 == 0 ? "event#:" + i : "", "Event #" + Ids.uuid()));
     }
 
     AtomicInteger counter = new AtomicInteger(0);
 
+    static final JsonCodec<Event> EVENT_CODEC = new JsonCodec<>(Event.class);
+
+    /**
+     * Filters and serializes {@link #eventProcessor()} events on {@code rails} parallel rails with a shared codec, then
+     * appends them to the store sequentially and in their original order.
+     */
+    public Flux<String> storeEventsInOrder(int rails) {
+        return OrderedParallel.filterMap(eventProcessor(),
+                                         event -> event.metaData.length() > 0,
+                                         EVENT_CODEC::encode,
+                                         rails,
+                                         32,
+                                         Schedulers.parallel())
+                              .concatMap(json -> appendToStore(json).thenReturn(json));
+    }
+
+    /**
+     * Like {@link #storeEventsInOrder(int)}, but idle rails steal events queued on busy ones, for when some events
+     * take much longer to serialize than others.
+     */
+    public Flux<String> storeEventsInOrder(WorkStealingRails rails) {
+        return rails.filterMap(eventProcessor(),
+                               event -> event.metaData.length() > 0,
+                               EVENT_CODEC::encode)
+                    .concatMap(json -> appendToStore(json).thenReturn(json));
+    }
+
+    /**
+     * Serializes {@link #eventProcessor()} events on the worker their metadata is pinned to, so each metadata key is
+     * only ever handled by one thread. Events of one key stay in order, events of different keys don't.
+     */
+    public Flux<String> encodeEventsByKey(KeyAffinityScheduler affinity) {
+        return affinity.partition(eventProcessor(), event -> event.metaData, 32)
+                       .map(EVENT_CODEC::encode)
+                       .sequential();
+    }
+
+    static final ObjectReader EVENT_READER = new ObjectMapper().reader();
+
+    /**
+     * When set, {@link #appendToStore(String)} and {@link #appendAllToStore(List)} append to this store instead of
+     * simulating one.
+     */
+    MappedEventStore eventStore;
+
     public Mono<Void> appendToStore(String eventJson) {
+        if (eventStore != null) {
+            return Mono.fromRunnable(() -> {
+                long offset = eventStore.append(eventJson);
+                LOG.info("Appended event to store at offset {}: {}", offset, counter.incrementAndGet());
+            });
+        }
         return Mono.just(eventJson)
                    .delayElement(Duration.ofMillis(50))
-                   .doOnNext(s -> System.out.println("Appending event to store: " + counter.incrementAndGet()))
+                   .doOnNext(s -> LOG.info("Appending event to store: {}", counter.incrementAndGet()))
+                   .then();
+    }
+
+    /**
+     * Appends all events in one commit, paying the store latency once for the whole list.
+     */
+    public Mono<Void> appendAllToStore(List<String> eventsJson) {
+        if (eventStore != null) {
+            return Mono.fromRunnable(() -> {
+                eventsJson.forEach(eventStore::append);
+                LOG.info("Appended {} events to store: {}", eventsJson.size(), counter.addAndGet(eventsJson.size()));
+            });
+        }
+        return Mono.just(eventsJson)
+                   .delayElement(Duration.ofMillis(50))
+                   .doOnNext(s -> LOG.info("Appending {} events to store: {}",
+                                           eventsJson.size(),
+                                           counter.addAndGet(eventsJson.size())))
                    .then();
     }
 
+    /**
+     * Group commit over {@link #appendAllToStore(List)}.
+     */
+    public GroupCommit<String> storeGroupCommit(int maxGroupSize) {
+        return new GroupCommit<>(this::appendAllToStore, maxGroupSize);
+    }
+
+    /**
+     * Serializes {@link #eventProcessor()} events and appends them through {@code groupCommit}, sequentially and in
+     * order, one commit per group of events that queued up during the previous commit.
+     */
+    public Flux<String> storeEvents(GroupCommit<String> groupCommit) {
+        return groupCommit.apply(eventProcessor().filter(event -> event.metaData.length() > 0)
+                                                 .map(EVENT_CODEC::encode));
+    }
+
+    /**
+     * Tails {@link #eventStore} from {@code offset} on, decoding events straight from the mapped segments.
+     */
+    public Flux<Event> readEventsFrom(long offset) {
+        return eventStore.readFrom(offset)
+                         .map(record -> decodeEvent(record.getPayload()));
+    }
+
+    static Event decodeEvent(ByteBuffer json) {
+        try {
+            JsonNode node = EVENT_READER.readTree(new ByteBufferBackedInputStream(json));
+            return new Event(node.path("metaData").asText(), node.path("payload").asText());
+        } catch (IOException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
     public static class Event {
 
         public String metaData = "";
@@ -0,0 +1,127 @@
+package com.github.schananas.backpressure;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@code limitRate} whose prefetch follows how fast downstream takes elements, by additive increase and
+ * multiplicative decrease.
+ * <p>
+ * Prefetched elements wait in a buffer until downstream asks for them, and how long they wait tells how well the
+ * prefetch fits. Every {@code limit} elements, the average wait is compared with {@code targetLatency}:
+ * <ul>
+ *     <li>over the target, downstream can't keep up and the buffer only adds latency, so the limit is halved;</li>
+ *     <li>within the target, if downstream found the buffer empty while asking for more, the source couldn't keep up
+ *     with the prefetch, so the limit grows by {@code minLimit};</li>
+ *     <li>otherwise it stays.</li>
+ * </ul>
+ * The limit stays within {@code [minLimit, maxLimit]}, and requested-but-undelivered plus buffered elements never
+ * exceed it, so the buffer is bounded whatever downstream does.
+ * <p>
+ * One controller tracks one consumer, so use a separate instance per pipeline.
+ */
+public final class AdaptiveDemand {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+
+    private volatile int limit;
+    private volatile long lastLatencyNanos;
+    private final AtomicLong increases = new AtomicLong();
+    private final AtomicLong decreases = new AtomicLong();
+
+    public AdaptiveDemand(int minLimit, int maxLimit, Duration targetLatency) {
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Expected 0 < minLimit <= maxLimit, got " + minLimit + " and " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = targetLatency.toNanos();
+        this.limit = minLimit;
+    }
+
+    /**
+     * Requests from {@code source} in batches sized by {@link #currentLimit()}, and hands the elements to downstream as
+     * it requests them.
+     */
+    public <T> Flux<T> limitRate(Flux<T> source) {
+        // hidden, so the lifted operator isn't fuseable: the subscriber doesn't implement QueueSubscription
+        return source.hide()
+                     .transform(Operators.<T, T>lift((scannable, actual) ->
+                             new AdaptiveLimitSubscriber<T>(actual, this)));
+    }
+
+    public int currentLimit() {
+        return limit;
+    }
+
+    int maxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Reports the average time the last {@code limit} elements waited in the buffer, and whether downstream found the
+     * buffer empty in the meantime.
+     */
+    synchronized void recordEpoch(long averageWaitNanos, boolean starved) {
+        lastLatencyNanos = averageWaitNanos;
+        int current = limit;
+        if (averageWaitNanos > targetLatencyNanos) {
+            if (current > minLimit) {
+                limit = Math.max(minLimit, current / 2);
+                decreases.incrementAndGet();
+            }
+        } else if (starved && current < maxLimit) {
+            limit = Math.min(maxLimit, current + minLimit);
+            increases.incrementAndGet();
+        }
+    }
+
+    public Metrics metrics() {
+        return new Metrics(limit, Duration.ofNanos(lastLatencyNanos), increases.get(), decreases.get());
+    }
+
+    public static final class Metrics {
+
+        private final int limit;
+        private final Duration lastLatency;
+        private final long increases;
+        private final long decreases;
+
+        Metrics(int limit, Duration lastLatency, long increases, long decreases) {
+            this.limit = limit;
+            this.lastLatency = lastLatency;
+            this.increases = increases;
+            this.decreases = decreases;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        /**
+         * Average time elements waited in the buffer over the last adjustment.
+         */
+        public Duration getLastLatency() {
+            return lastLatency;
+        }
+
+        public long getIncreases() {
+            return increases;
+        }
+
+        public long getDecreases() {
+            return decreases;
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics[limit=" + limit + ", lastLatency=" + lastLatency + ", increases=" + increases
+                    + ", decreases=" + decreases + "]";
+        }
+    }
+}
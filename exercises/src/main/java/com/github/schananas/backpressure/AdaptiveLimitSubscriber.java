@@ -0,0 +1,219 @@
+package com.github.schananas.backpressure;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Operators;
+import reactor.util.context.Context;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Buffers what upstream sends in a single-producer single-consumer ring, next to the time each element arrived, and
+ * drains it to downstream as it requests.
+ * <p>
+ * Whichever thread wins {@code wip} drains, ends an adjustment epoch every {@code limit} elements and tops the upstream
+ * demand up once requested-but-undelivered plus buffered elements fall to three quarters of the limit. Both counts are
+ * kept as running totals, {@code upstreamRequested - consumed}, so only the draining thread writes them.
+ */
+final class AdaptiveLimitSubscriber<T> implements CoreSubscriber<T>, Subscription {
+
+    private final CoreSubscriber<? super T> actual;
+    private final AdaptiveDemand controller;
+    private final int mask;
+    private final Object[] items;
+    private final long[] arrivals;
+    private final AtomicLong produced = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile long requested;
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final AtomicLongFieldUpdater<AdaptiveLimitSubscriber<?>> REQUESTED =
+            (AtomicLongFieldUpdater) AtomicLongFieldUpdater.newUpdater(AdaptiveLimitSubscriber.class, "requested");
+
+    private Subscription upstream;
+    private volatile boolean done;
+    private Throwable error;
+    private volatile boolean cancelled;
+
+    // owned by whichever thread wins wip
+    private long upstreamRequested;
+    private long epochWaitNanos;
+    private int epochCount;
+    private boolean starved;
+
+    AdaptiveLimitSubscriber(CoreSubscriber<? super T> actual, AdaptiveDemand controller) {
+        this.actual = actual;
+        this.controller = controller;
+        int capacity = Math.max(2, Integer.highestOneBit(controller.maxLimit() - 1) << 1);
+        this.mask = capacity - 1;
+        this.items = new Object[capacity];
+        this.arrivals = new long[capacity];
+    }
+
+    @Override
+    public Context currentContext() {
+        return actual.currentContext();
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        if (Operators.validate(upstream, s)) {
+            upstream = s;
+            actual.onSubscribe(this);
+            drain();
+        }
+    }
+
+    @Override
+    public void onNext(T t) {
+        if (done) {
+            Operators.onNextDropped(t, currentContext());
+            return;
+        }
+        long p = produced.get();
+        if (p - consumed.get() > mask) {
+            upstream.cancel();
+            onError(Operators.onOperatorError(upstream, Exceptions.failWithOverflow(), t, currentContext()));
+            return;
+        }
+        int slot = (int) (p & mask);
+        items[slot] = t;
+        arrivals[slot] = System.nanoTime();
+        produced.lazySet(p + 1);
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (done) {
+            Operators.onErrorDropped(t, currentContext());
+            return;
+        }
+        error = t;
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        if (done) {
+            return;
+        }
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void request(long n) {
+        if (Operators.validate(n)) {
+            Operators.addCap(REQUESTED, this, n);
+            drain();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            upstream.cancel();
+            if (wip.getAndIncrement() == 0) {
+                clear();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        for (; ; ) {
+            long r = requested;
+            long e = 0;
+            long c = consumed.get();
+            while (e != r) {
+                if (cancelled) {
+                    clear();
+                    return;
+                }
+                boolean d = done;
+                if (c == produced.get()) {
+                    if (d) {
+                        terminate();
+                        return;
+                    }
+                    break;
+                }
+                int slot = (int) (c & mask);
+                T t = (T) items[slot];
+                items[slot] = null;
+                long waited = System.nanoTime() - arrivals[slot];
+                consumed.lazySet(++c);
+                actual.onNext(t);
+                e++;
+                epochWaitNanos += waited;
+                if (++epochCount >= controller.currentLimit()) {
+                    controller.recordEpoch(epochWaitNanos / epochCount, starved);
+                    epochWaitNanos = 0;
+                    epochCount = 0;
+                    starved = false;
+                }
+            }
+            if (cancelled) {
+                clear();
+                return;
+            }
+            if (done && c == produced.get()) {
+                terminate();
+                return;
+            }
+            if (e != r && c == produced.get()) {
+                // downstream wants more than upstream delivered so far
+                starved = true;
+            }
+            if (e != 0 && r != Long.MAX_VALUE) {
+                REQUESTED.addAndGet(this, -e);
+            }
+            replenish(c);
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private void replenish(long c) {
+        if (done) {
+            return;
+        }
+        int limit = controller.currentLimit();
+        long inFlight = upstreamRequested - c;
+        if (inFlight <= limit - (limit >> 2)) {
+            long n = limit - inFlight;
+            if (n > 0) {
+                upstreamRequested += n;
+                upstream.request(n);
+            }
+        }
+    }
+
+    private void terminate() {
+        Throwable e = error;
+        if (e != null) {
+            actual.onError(e);
+        } else {
+            actual.onComplete();
+        }
+    }
+
+    private void clear() {
+        for (int i = 0; i < items.length; i++) {
+            items[i] = null;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.schananas.backpressure;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Operators;
+import reactor.util.context.Context;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Passes every signal through, recording it into the {@link DemandTracer}.
+ * <p>
+ * Each bounded request is queued with its time and size; elements use them up in order, so an element's latency is
+ * measured from the request it was asked for in. Requests may come from any thread and only append, elements arrive
+ * serially and are the only ones taking from the queue.
+ */
+final class DemandTracingSubscriber<T> implements CoreSubscriber<T>, Subscription {
+
+    private static final long NOT_STARVED = Long.MIN_VALUE;
+
+    private final CoreSubscriber<? super T> actual;
+    private final DemandTracer tracer;
+    private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+
+    // requested but not delivered, Long.MAX_VALUE once unbounded
+    private volatile long outstanding;
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final AtomicLongFieldUpdater<DemandTracingSubscriber<?>> OUTSTANDING =
+            (AtomicLongFieldUpdater) AtomicLongFieldUpdater.newUpdater(DemandTracingSubscriber.class, "outstanding");
+
+    private Subscription upstream;
+    // when the last element used up all demand, NOT_STARVED while there is some or before the first request
+    private volatile long starvedSince = NOT_STARVED;
+    private volatile boolean cancelled;
+    private boolean done;
+
+    DemandTracingSubscriber(CoreSubscriber<? super T> actual, DemandTracer tracer) {
+        this.actual = actual;
+        this.tracer = tracer;
+    }
+
+    @Override
+    public Context currentContext() {
+        return actual.currentContext();
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        if (Operators.validate(upstream, s)) {
+            upstream = s;
+            tracer.subscriptions.increment();
+            actual.onSubscribe(this);
+        }
+    }
+
+    @Override
+    public void onNext(T t) {
+        if (done) {
+            Operators.onNextDropped(t, currentContext());
+            return;
+        }
+        if (outstanding != Long.MAX_VALUE) {
+            long now = tracer.now();
+            Request head = requests.peek();
+            if (head != null) {
+                tracer.requestLatency.record(now - head.at);
+                if (--head.remaining == 0) {
+                    requests.poll();
+                }
+            }
+            long left = OUTSTANDING.decrementAndGet(this);
+            tracer.outstandingDemand.record(left);
+            if (left == 0) {
+                starvedSince = now;
+            }
+        }
+        actual.onNext(t);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (done) {
+            Operators.onErrorDropped(t, currentContext());
+            return;
+        }
+        done = true;
+        tracer.errors.increment();
+        actual.onError(t);
+    }
+
+    @Override
+    public void onComplete() {
+        if (done) {
+            return;
+        }
+        done = true;
+        tracer.completions.increment();
+        actual.onComplete();
+    }
+
+    @Override
+    public void request(long n) {
+        if (Operators.validate(n)) {
+            record(n);
+            upstream.request(n);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            if (!done) {
+                tracer.cancellations.increment();
+            }
+            upstream.cancel();
+        }
+    }
+
+    private void record(long n) {
+        if (n == Long.MAX_VALUE) {
+            tracer.unboundedRequests.increment();
+            outstanding = Long.MAX_VALUE;
+            return;
+        }
+        tracer.requestSizes.record(n);
+        long now = tracer.now();
+        long since = starvedSince;
+        if (since != NOT_STARVED) {
+            tracer.demandGaps.record(now - since);
+            starvedSince = NOT_STARVED;
+        }
+        requests.offer(new Request(now, n));
+        long after = Operators.addCap(Operators.addCap(OUTSTANDING, this, n), n);
+        if (after != Long.MAX_VALUE) {
+            tracer.outstandingDemand.record(after);
+        }
+    }
+
+    private static final class Request {
+
+        final long at;
+        long remaining;
+
+        Request(long at, long remaining) {
+            this.at = at;
+            this.remaining = remaining;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.github.schananas.backpressure;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Operators;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static com.github.schananas.backpressure.SocketStreamServer.BUFFER_BYTES;
+import static com.github.schananas.backpressure.SocketStreamServer.COMPLETE;
+import static com.github.schananas.backpressure.SocketStreamServer.ERROR;
+
+/**
+ * Client side of a {@link SocketStreamServer}: a {@link Flux} whose elements come over a socket, and whose demand goes
+ * back over it as credits.
+ * <p>
+ * Every subscription opens its own connection, served by its own selector thread, which also delivers the elements.
+ * Downstream requests are prefetched in windows of {@code prefetch} and replenished at three quarters, so the server
+ * never has more than {@code prefetch} elements in flight for one subscriber, whatever it requests. Requests made while
+ * a credit frame is being written are added up and sent as one. Frames are parsed out of a direct buffer allocated once
+ * per connection. Cancelling closes the connection, which cancels the server side.
+ */
+public final class SocketStream<T> {
+
+    private final InetSocketAddress address;
+    private final Function<byte[], T> decoder;
+    private final FluxSink<T> sink;
+    private final AtomicLong credits = new AtomicLong();
+    private final Selector selector;
+    private final SocketChannel channel;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final ByteBuffer creditBuffer = ByteBuffer.allocateDirect(Long.BYTES);
+    private SelectionKey key;
+    private volatile boolean closed;
+
+    // a frame bigger than readBuffer, filled across reads
+    private byte[] partial;
+    private int partialOffset;
+    private int partialMarker;
+
+    private SocketStream(InetSocketAddress address, Function<byte[], T> decoder, FluxSink<T> sink) throws IOException {
+        this.address = address;
+        this.decoder = decoder;
+        this.sink = sink;
+        this.selector = Selector.open();
+        this.channel = SocketChannel.open();
+        creditBuffer.flip();
+    }
+
+    public static <T> Flux<T> connect(InetSocketAddress address, Function<byte[], T> decoder, int prefetch) {
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("Expected prefetch > 0, got " + prefetch);
+        }
+        return Flux.<T>create(sink -> {
+                       SocketStream<T> stream;
+                       try {
+                           stream = new SocketStream<>(address, decoder, sink);
+                       } catch (IOException e) {
+                           sink.error(new UncheckedIOException("Could not connect to " + address, e));
+                           return;
+                       }
+                       stream.start();
+                   })
+                   .limitRate(prefetch);
+    }
+
+    private void start() {
+        sink.onRequest(n -> {
+            credits.accumulateAndGet(n, Operators::addCap);
+            selector.wakeup();
+        });
+        sink.onDispose(this::close);
+        Thread thread = new Thread(this::selectLoop, "socket-stream-" + address.getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void selectLoop() {
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(address);
+            key = channel.register(selector, SelectionKey.OP_CONNECT);
+            while (channel.isOpen()) {
+                selector.select();
+                if (key.isValid() && key.isConnectable() && channel.finishConnect()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                if (!channel.isConnected()) {
+                    selector.selectedKeys().clear();
+                    continue;
+                }
+                if (key.isValid() && key.isReadable() && !read()) {
+                    return;
+                }
+                selector.selectedKeys().clear();
+                sendCredits();
+            }
+        } catch (ClosedSelectorException e) {
+            // cancelled
+        } catch (IOException e) {
+            if (!closed) {
+                String message = channel.isConnected() ? "Lost connection to " : "Could not connect to ";
+                sink.error(new UncheckedIOException(message + address, e));
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Writes the credits granted since the last frame, once the previous frame is fully written.
+     */
+    private void sendCredits() throws IOException {
+        if (!creditBuffer.hasRemaining()) {
+            long n = credits.getAndSet(0);
+            if (n == 0) {
+                return;
+            }
+            creditBuffer.clear();
+            creditBuffer.putLong(n).flip();
+        }
+        channel.write(creditBuffer);
+        key.interestOps(creditBuffer.hasRemaining()
+                                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                                : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Reads what is available and delivers every whole frame in it. Returns {@code false} once the stream has ended.
+     */
+    private boolean read() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            sink.error(new IOException("Connection to " + address + " closed before the stream ended"));
+            return false;
+        }
+        readBuffer.flip();
+        try {
+            for (; ; ) {
+                if (partial != null) {
+                    int n = Math.min(readBuffer.remaining(), partial.length - partialOffset);
+                    readBuffer.get(partial, partialOffset, n);
+                    partialOffset += n;
+                    if (partialOffset < partial.length) {
+                        return true;
+                    }
+                    byte[] frame = partial;
+                    partial = null;
+                    if (!deliver(partialMarker, frame)) {
+                        return false;
+                    }
+                }
+                if (readBuffer.remaining() < Integer.BYTES) {
+                    return true;
+                }
+                int marker = readBuffer.getInt(readBuffer.position());
+                int length = marker >= 0 ? marker : marker == COMPLETE ? 0 : ERROR - marker;
+                if (readBuffer.remaining() < Integer.BYTES + length) {
+                    if (Integer.BYTES + length <= readBuffer.capacity()) {
+                        return true;
+                    }
+                    // bigger than the buffer, collect it across reads
+                    readBuffer.position(readBuffer.position() + Integer.BYTES);
+                    partial = new byte[length];
+                    partialOffset = 0;
+                    partialMarker = marker;
+                    continue;
+                }
+                readBuffer.position(readBuffer.position() + Integer.BYTES);
+                byte[] frame = new byte[length];
+                readBuffer.get(frame);
+                if (!deliver(marker, frame)) {
+                    return false;
+                }
+            }
+        } finally {
+            readBuffer.compact();
+        }
+    }
+
+    private boolean deliver(int marker, byte[] frame) {
+        if (marker >= 0) {
+            T value;
+            try {
+                value = decoder.apply(frame);
+            } catch (Throwable e) {
+                sink.error(e);
+                return false;
+            }
+            sink.next(value);
+            return true;
+        }
+        if (marker == COMPLETE) {
+            sink.complete();
+        } else {
+            sink.error(new IllegalStateException("Remote stream failed: " + new String(frame, StandardCharsets.UTF_8)));
+        }
+        return false;
+    }
+
+    private void close() {
+        closed = true;
+        try {
+            channel.close();
+            selector.close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.github.schananas.backpressure;
+
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.util.concurrent.Queues;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Serves a {@link Flux} on a loopback port to {@link SocketStream} clients, sending only as many elements as they have
+ * granted credits for.
+ * <p>
+ * Each connection subscribes to a new {@code source} and requests nothing from it until credits arrive. All connections
+ * share one selector thread, which reads credit frames and calls {@code request(n)} with them, and writes elements out
+ * through a direct buffer allocated once per connection. A source emitting on another thread queues its frames and
+ * wakes the selector up once per batch, not once per element. A client going away cancels its subscription.
+ * <p>
+ * Client to server: {@code [long credits]}. Server to client: {@code [int length][length bytes of element]}, or a
+ * terminal frame with a negative length, {@code -1} for completion and {@code -2 - n} for an error whose UTF-8 message of
+ * {@code n} bytes follows. The connection is closed after the terminal frame.
+ */
+public final class SocketStreamServer<T> implements AutoCloseable {
+
+    static final int BUFFER_BYTES = 64 * 1024;
+    static final int COMPLETE = -1;
+    static final int ERROR = -2;
+    private static final int MAX_MESSAGE_BYTES = 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final InetSocketAddress address;
+    private final Selector selector;
+    private final Supplier<? extends Flux<T>> source;
+    private final Function<? super T, byte[]> encoder;
+    private final Queue<Connection> ready = Queues.<Connection>unboundedMultiproducer().get();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final Thread selectorThread;
+
+    private SocketStreamServer(ServerSocketChannel serverChannel,
+                               Selector selector,
+                               Supplier<? extends Flux<T>> source,
+                               Function<? super T, byte[]> encoder) throws IOException {
+        this.serverChannel = serverChannel;
+        this.address = (InetSocketAddress) serverChannel.getLocalAddress();
+        this.selector = selector;
+        this.source = source;
+        this.encoder = encoder;
+        this.selectorThread = new Thread(this::selectLoop, "socket-stream-server-" + address.getPort());
+        this.selectorThread.setDaemon(true);
+    }
+
+    /**
+     * Starts a server on an ephemeral loopback port.
+     */
+    public static <T> SocketStreamServer<T> start(Supplier<? extends Flux<T>> source, Function<? super T, byte[]> encoder) {
+        try {
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            serverChannel.configureBlocking(false);
+            Selector selector = Selector.open();
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            SocketStreamServer<T> server = new SocketStreamServer<>(serverChannel, selector, source, encoder);
+            server.selectorThread.start();
+            return server;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start socket stream server", e);
+        }
+    }
+
+    public InetSocketAddress address() {
+        return address;
+    }
+
+    @Override
+    public void close() {
+        try {
+            serverChannel.close();
+            selector.close();
+            connections.forEach(Connection::close);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void selectLoop() {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            connection.readCredits();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+                Connection connection;
+                while ((connection = ready.poll()) != null) {
+                    connection.flushPending.set(false);
+                    connection.flush();
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // server closed
+        } catch (IOException e) {
+            // server channel broken, nothing left to serve
+        } finally {
+            connections.forEach(Connection::close);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections.add(connection);
+        source.get().subscribe(connection);
+    }
+
+    /**
+     * One client: its channel, subscription and buffers. Everything but {@link #hookOnNext} and the terminal hooks runs
+     * on the selector thread; those only queue frames.
+     */
+    private final class Connection extends BaseSubscriber<T> {
+
+        private final SocketChannel channel;
+        private final ByteBuffer creditBuffer = ByteBuffer.allocateDirect(Long.BYTES * 64);
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final Queue<Object> outbound = Queues.unboundedMultiproducer().get();
+        private final AtomicBoolean flushPending = new AtomicBoolean();
+        private SelectionKey key;
+
+        // an element taken from outbound whose length didn't fit in writeBuffer yet
+        private byte[] held;
+        // the frame being copied into writeBuffer, and how much of it is in already
+        private byte[] frame;
+        private int frameOffset;
+        private boolean terminated;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            // nothing until the client grants credits
+        }
+
+        @Override
+        protected void hookOnNext(T value) {
+            outbound.offer(encoder.apply(value));
+            scheduleFlush();
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            outbound.offer(new TerminalFrame(COMPLETE, new byte[0]));
+            scheduleFlush();
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            byte[] message = String.valueOf(throwable.getMessage()).getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(message.length, MAX_MESSAGE_BYTES);
+            outbound.offer(new TerminalFrame(ERROR - length, Arrays.copyOf(message, length)));
+            scheduleFlush();
+        }
+
+        private void scheduleFlush() {
+            if (flushPending.compareAndSet(false, true)) {
+                ready.offer(this);
+                if (Thread.currentThread() != selectorThread) {
+                    selector.wakeup();
+                }
+            }
+        }
+
+        void readCredits() {
+            try {
+                if (channel.read(creditBuffer) < 0) {
+                    close();
+                    return;
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            creditBuffer.flip();
+            long credits = 0;
+            while (creditBuffer.remaining() >= Long.BYTES) {
+                credits += creditBuffer.getLong();
+            }
+            creditBuffer.compact();
+            if (credits > 0) {
+                request(credits);
+            }
+        }
+
+        void flush() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                for (; ; ) {
+                    fill();
+                    writeBuffer.flip();
+                    channel.write(writeBuffer);
+                    writeBuffer.compact();
+                    if (writeBuffer.position() > 0) {
+                        // socket is full, carry on when it drains
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    if (frame == null && held == null && outbound.isEmpty()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        if (terminated) {
+                            close();
+                        }
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Copies queued frames into {@link #writeBuffer} until it is full or the queue is empty.
+         */
+        private void fill() {
+            for (; ; ) {
+                if (frame == null) {
+                    Object next = held != null ? held : outbound.poll();
+                    held = null;
+                    if (next == null) {
+                        return;
+                    }
+                    if (next instanceof TerminalFrame) {
+                        frame = ((TerminalFrame) next).bytes;
+                        terminated = true;
+                    } else {
+                        byte[] element = (byte[]) next;
+                        if (writeBuffer.remaining() < Integer.BYTES) {
+                            held = element;
+                            return;
+                        }
+                        writeBuffer.putInt(element.length);
+                        frame = element;
+                    }
+                    frameOffset = 0;
+                }
+                int n = Math.min(writeBuffer.remaining(), frame.length - frameOffset);
+                writeBuffer.put(frame, frameOffset, n);
+                frameOffset += n;
+                if (frameOffset < frame.length) {
+                    return;
+                }
+                frame = null;
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+            dispose();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+
+    /**
+     * A whole terminal frame, header included.
+     */
+    private static final class TerminalFrame {
+
+        final byte[] bytes;
+
+        TerminalFrame(int marker, byte[] message) {
+            this.bytes = ByteBuffer.allocate(Integer.BYTES + message.length).putInt(marker).put(message).array();
+        }
+    }
+}
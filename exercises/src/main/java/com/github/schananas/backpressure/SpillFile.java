@@ -0,0 +1,141 @@
+package com.github.schananas.backpressure;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only file of {@code [int length][payload]} records, read back in the order they were written.
+ * <p>
+ * Appends collect in a write buffer that goes to the file when it's full, or when the reader has caught up with what
+ * is in the file; reads come through a read buffer filled a block at a time, so both sides mostly avoid a system call
+ * per record. Once everything written has been read, the file is truncated and starts over, so it only grows while
+ * the reader is behind. Not thread-safe: callers serialize access.
+ */
+final class SpillFile implements AutoCloseable {
+
+    private static final int BLOCK_BYTES = 64 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BLOCK_BYTES);
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BLOCK_BYTES).flip();
+
+    // file positions: flushed up to writePosition, read up to readPosition
+    private long writePosition;
+    private long readPosition;
+    private long records;
+
+    private SpillFile(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    static SpillFile create(Path directory) throws IOException {
+        Path path = Files.createTempFile(directory, "spill-", ".log");
+        FileChannel channel = FileChannel.open(path,
+                                               StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE,
+                                               StandardOpenOption.DELETE_ON_CLOSE);
+        return new SpillFile(path, channel);
+    }
+
+    void append(byte[] payload) throws IOException {
+        if (writeBuffer.remaining() < Integer.BYTES + payload.length) {
+            flush();
+        }
+        if (writeBuffer.remaining() < Integer.BYTES + payload.length) {
+            // bigger than a block, write it straight through
+            ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + payload.length);
+            record.putInt(payload.length).put(payload).flip();
+            writeFully(record);
+        } else {
+            writeBuffer.putInt(payload.length).put(payload);
+        }
+        records++;
+    }
+
+    /**
+     * Returns the oldest record not read yet, or {@code null} if there is none.
+     */
+    byte[] read() throws IOException {
+        if (records == 0) {
+            return null;
+        }
+        ensureReadable(Integer.BYTES);
+        int length = readBuffer.getInt();
+        byte[] payload = new byte[length];
+        int copied = Math.min(length, readBuffer.remaining());
+        readBuffer.get(payload, 0, copied);
+        if (copied < length) {
+            // larger than what's buffered, read the rest straight into the payload
+            ByteBuffer rest = ByteBuffer.wrap(payload, copied, length - copied);
+            ensureFlushed(readPosition + rest.remaining());
+            while (rest.hasRemaining()) {
+                readPosition += channel.read(rest, readPosition);
+            }
+        }
+        records--;
+        if (records == 0) {
+            reset();
+        }
+        return payload;
+    }
+
+    private void ensureReadable(int bytes) throws IOException {
+        if (readBuffer.remaining() >= bytes) {
+            return;
+        }
+        readBuffer.compact();
+        ensureFlushed(readPosition + bytes - readBuffer.position());
+        while (readBuffer.position() < bytes) {
+            int read = channel.read(readBuffer, readPosition);
+            if (read < 0) {
+                throw new IOException("Spill file " + path + " ended before its last record");
+            }
+            readPosition += read;
+        }
+        readBuffer.flip();
+    }
+
+    private void ensureFlushed(long position) throws IOException {
+        if (position > writePosition) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        writeFully(writeBuffer);
+        writeBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            writePosition += channel.write(source, writePosition);
+        }
+    }
+
+    private void reset() throws IOException {
+        channel.truncate(0);
+        writePosition = 0;
+        readPosition = 0;
+        writeBuffer.clear();
+        readBuffer.clear().flip();
+    }
+
+    /**
+     * Size of the file, not counting appends still in the write buffer.
+     */
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
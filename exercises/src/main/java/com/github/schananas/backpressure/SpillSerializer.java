@@ -0,0 +1,27 @@
+package com.github.schananas.backpressure;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns the elements a {@link SpillingBuffer} spills into bytes and back.
+ */
+public interface SpillSerializer<T> {
+
+    byte[] serialize(T value);
+
+    T deserialize(byte[] bytes);
+
+    static SpillSerializer<String> utf8() {
+        return new SpillSerializer<>() {
+            @Override
+            public byte[] serialize(String value) {
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.schananas.backpressure;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@code onBackpressureBuffer} that keeps at most {@code capacity} elements in memory and spills the rest to disk.
+ * <p>
+ * Upstream is requested unbounded, so it may send as fast as it likes. Elements go to an in-memory ring while it has
+ * room; once it is full, they are serialized and appended to a file in {@code directory}, one per subscription, and
+ * keep going there until downstream has read the file back. Downstream gets the ring first, then the file, so order is
+ * kept. The file is truncated whenever downstream catches up, and deleted when the subscription ends, or with the
+ * process if it dies first.
+ * <p>
+ * Completion and errors are delivered after everything buffered. If the file can't be written or read, the subscription
+ * fails with an {@link java.io.UncheckedIOException} and upstream is cancelled.
+ * <p>
+ * {@link #metrics()} tells how much has spilled, across all subscriptions of one buffer, so it can be alerted on.
+ */
+public final class SpillingBuffer<T> {
+
+    private final int capacity;
+    private final Path directory;
+    private final SpillSerializer<T> serializer;
+
+    final LongAdder spilledElements = new LongAdder();
+    final LongAdder spilledBytes = new LongAdder();
+    final AtomicLong pendingElements = new AtomicLong();
+    final AtomicLong pendingBytes = new AtomicLong();
+    final AtomicLong maxPendingBytes = new AtomicLong();
+
+    public SpillingBuffer(int capacity, Path directory, SpillSerializer<T> serializer) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Expected capacity > 0, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.directory = directory;
+        this.serializer = serializer;
+    }
+
+    public Flux<T> buffer(Flux<T> source) {
+        // hidden, so the lifted operator isn't fuseable: the subscriber doesn't implement QueueSubscription
+        return source.hide()
+                     .transform(Operators.<T, T>lift((scannable, actual) ->
+                             new SpillingBufferSubscriber<T>(actual, this)));
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    SpillSerializer<T> serializer() {
+        return serializer;
+    }
+
+    void spilled(long bytes) {
+        spilledElements.increment();
+        spilledBytes.add(bytes);
+        pendingElements.incrementAndGet();
+        maxPendingBytes.accumulateAndGet(pendingBytes.addAndGet(bytes), Math::max);
+    }
+
+    void unspilled(long elements, long bytes) {
+        pendingElements.addAndGet(-elements);
+        pendingBytes.addAndGet(-bytes);
+    }
+
+    public Metrics metrics() {
+        return new Metrics(spilledElements.sum(),
+                           spilledBytes.sum(),
+                           pendingElements.get(),
+                           pendingBytes.get(),
+                           maxPendingBytes.get());
+    }
+
+    /**
+     * Byte counts include a four byte length per element.
+     */
+    public static final class Metrics {
+
+        private final long spilledElements;
+        private final long spilledBytes;
+        private final long pendingElements;
+        private final long pendingBytes;
+        private final long maxPendingBytes;
+
+        Metrics(long spilledElements, long spilledBytes, long pendingElements, long pendingBytes, long maxPendingBytes) {
+            this.spilledElements = spilledElements;
+            this.spilledBytes = spilledBytes;
+            this.pendingElements = pendingElements;
+            this.pendingBytes = pendingBytes;
+            this.maxPendingBytes = maxPendingBytes;
+        }
+
+        /**
+         * Elements written to disk since the buffer was created.
+         */
+        public long getSpilledElements() {
+            return spilledElements;
+        }
+
+        public long getSpilledBytes() {
+            return spilledBytes;
+        }
+
+        /**
+         * Elements on disk that downstream hasn't read yet.
+         */
+        public long getPendingElements() {
+            return pendingElements;
+        }
+
+        public long getPendingBytes() {
+            return pendingBytes;
+        }
+
+        /**
+         * The most {@link #getPendingBytes()} has been.
+         */
+        public long getMaxPendingBytes() {
+            return maxPendingBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics[spilledElements=" + spilledElements + ", spilledBytes=" + spilledBytes
+                    + ", pendingElements=" + pendingElements + ", pendingBytes=" + pendingBytes
+                    + ", maxPendingBytes=" + maxPendingBytes + "]";
+        }
+    }
+}
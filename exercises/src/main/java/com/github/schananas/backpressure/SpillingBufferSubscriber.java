@@ -0,0 +1,267 @@
+package com.github.schananas.backpressure;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Operators;
+import reactor.util.concurrent.Queues;
+import reactor.util.context.Context;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Requests upstream unbounded and buffers what it sends in a single-producer single-consumer ring, spilling to a
+ * {@link SpillFile} once the ring is full, and drains both to downstream as it requests.
+ * <p>
+ * Elements go to the ring only while nothing is on disk. Only the producer adds to the file and only the consumer takes
+ * the last record out of it, so the producer can check {@code spilled} without the lock: everything in the ring is
+ * always older than everything in the file. The lock guards the file itself, which both sides touch.
+ */
+final class SpillingBufferSubscriber<T> implements CoreSubscriber<T>, Subscription {
+
+    private final CoreSubscriber<? super T> actual;
+    private final SpillingBuffer<T> buffer;
+    private final Queue<T> memory;
+    private final AtomicInteger inMemory = new AtomicInteger();
+    // records in the file, changed under the lock
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final Object lock = new Object();
+
+    private volatile long requested;
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final AtomicLongFieldUpdater<SpillingBufferSubscriber<?>> REQUESTED =
+            (AtomicLongFieldUpdater) AtomicLongFieldUpdater.newUpdater(SpillingBufferSubscriber.class, "requested");
+
+    private Subscription upstream;
+    private volatile boolean done;
+    private Throwable error;
+    private volatile boolean cancelled;
+
+    // guarded by lock, created on the first spill
+    private SpillFile file;
+    private long fileBytes;
+    private boolean closed;
+
+    SpillingBufferSubscriber(CoreSubscriber<? super T> actual, SpillingBuffer<T> buffer) {
+        this.actual = actual;
+        this.buffer = buffer;
+        this.memory = Queues.<T>get(buffer.capacity()).get();
+    }
+
+    @Override
+    public Context currentContext() {
+        return actual.currentContext();
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        if (Operators.validate(upstream, s)) {
+            upstream = s;
+            actual.onSubscribe(this);
+            s.request(Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public void onNext(T t) {
+        if (done) {
+            Operators.onNextDropped(t, currentContext());
+            return;
+        }
+        if (cancelled) {
+            return;
+        }
+        if (spilled.get() == 0 && inMemory.get() < buffer.capacity()) {
+            inMemory.incrementAndGet();
+            memory.offer(t);
+        } else {
+            try {
+                spill(t);
+            } catch (IOException e) {
+                upstream.cancel();
+                onError(new UncheckedIOException("Could not spill to " + buffer.directory(), e));
+                return;
+            } catch (Throwable e) {
+                upstream.cancel();
+                onError(Operators.onOperatorError(upstream, e, t, currentContext()));
+                return;
+            }
+        }
+        drain();
+    }
+
+    private void spill(T t) throws IOException {
+        byte[] bytes = buffer.serializer().serialize(t);
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            if (file == null) {
+                file = SpillFile.create(buffer.directory());
+            }
+            file.append(bytes);
+            fileBytes += Integer.BYTES + bytes.length;
+            spilled.incrementAndGet();
+        }
+        buffer.spilled(Integer.BYTES + bytes.length);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (done) {
+            Operators.onErrorDropped(t, currentContext());
+            return;
+        }
+        error = t;
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        if (done) {
+            return;
+        }
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void request(long n) {
+        if (Operators.validate(n)) {
+            Operators.addCap(REQUESTED, this, n);
+            drain();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            upstream.cancel();
+            if (wip.getAndIncrement() == 0) {
+                clear();
+            }
+        }
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        for (; ; ) {
+            long r = requested;
+            long e = 0;
+            while (e != r) {
+                if (cancelled) {
+                    clear();
+                    return;
+                }
+                boolean d = done;
+                T t;
+                try {
+                    t = poll();
+                } catch (Throwable ex) {
+                    fail(ex);
+                    return;
+                }
+                if (t == null) {
+                    if (d) {
+                        terminate();
+                        return;
+                    }
+                    break;
+                }
+                actual.onNext(t);
+                e++;
+            }
+            if (cancelled) {
+                clear();
+                return;
+            }
+            if (done && inMemory.get() == 0 && spilled.get() == 0) {
+                terminate();
+                return;
+            }
+            if (e != 0 && r != Long.MAX_VALUE) {
+                REQUESTED.addAndGet(this, -e);
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private T poll() throws IOException {
+        T t = memory.poll();
+        if (t != null) {
+            inMemory.decrementAndGet();
+            return t;
+        }
+        if (spilled.get() == 0) {
+            return null;
+        }
+        byte[] bytes;
+        synchronized (lock) {
+            bytes = file.read();
+            fileBytes -= Integer.BYTES + bytes.length;
+            spilled.decrementAndGet();
+        }
+        buffer.unspilled(1, Integer.BYTES + bytes.length);
+        return buffer.serializer().deserialize(bytes);
+    }
+
+    private void fail(Throwable ex) {
+        upstream.cancel();
+        clear();
+        Throwable e = ex instanceof IOException
+                ? new UncheckedIOException("Could not read back from " + buffer.directory(), (IOException) ex)
+                : Operators.onOperatorError(ex, currentContext());
+        actual.onError(e);
+    }
+
+    private void terminate() {
+        close();
+        Throwable e = error;
+        if (e != null) {
+            actual.onError(e);
+        } else {
+            actual.onComplete();
+        }
+    }
+
+    private void clear() {
+        memory.clear();
+        inMemory.set(0);
+        close();
+    }
+
+    private void close() {
+        long elements;
+        long bytes;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            elements = spilled.getAndSet(0);
+            bytes = fileBytes;
+            fileBytes = 0;
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    Operators.onErrorDropped(new UncheckedIOException("Could not delete spill file", e), currentContext());
+                }
+            }
+        }
+        buffer.unspilled(elements, bytes);
+    }
+}
@@ -0,0 +1,199 @@
+package com.github.schananas.batching;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Size-and-time batching whose batch size follows the latency of the writes it feeds. While writes of full batches
+ * finish within {@code targetLatency} the batch size grows by a quarter, and as soon as a write takes longer it is
+ * halved, staying within {@code [minBatchSize, maxBatchSize]}. A batch that doesn't fill up within {@code maxLinger}
+ * of its first element is flushed as it is.
+ * <p>
+ * One batcher tracks one writer, so use a separate instance per pipeline.
+ */
+public final class AdaptiveBatcher {
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetLatencyNanos;
+    private final long maxLingerNanos;
+    private final Scheduler timer;
+
+    private volatile int batchSize;
+    private volatile long lastWriteLatencyNanos;
+    private final AtomicLongArray flushes = new AtomicLongArray(FlushReason.values().length);
+
+    public AdaptiveBatcher(int minBatchSize, int maxBatchSize, Duration targetLatency, Duration maxLinger) {
+        this(minBatchSize, maxBatchSize, targetLatency, maxLinger, Schedulers.parallel());
+    }
+
+    public AdaptiveBatcher(int minBatchSize,
+                           int maxBatchSize,
+                           Duration targetLatency,
+                           Duration maxLinger,
+                           Scheduler timer) {
+        if (minBatchSize <= 0 || maxBatchSize < minBatchSize) {
+            throw new IllegalArgumentException("Expected 0 < minBatchSize <= maxBatchSize, got "
+                                                       + minBatchSize + " and " + maxBatchSize);
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.targetLatencyNanos = targetLatency.toNanos();
+        this.maxLingerNanos = maxLinger.toNanos();
+        this.timer = timer;
+        this.batchSize = minBatchSize;
+    }
+
+    /**
+     * Splits {@code source} into batches of {@link #currentBatchSize()} elements. Elements are requested from
+     * {@code source} only while downstream is waiting for a batch, so a slow writer slows the source down.
+     * <p>
+     * Batch latency has to be reported through {@link #recordWrite(Batch, long)} for the size to adapt;
+     * {@link #writeAll(Flux, Function)} does that for you.
+     */
+    public <T> Flux<Batch<T>> batch(Flux<T> source) {
+        // hidden, so the lifted operator isn't fuseable: the subscriber doesn't implement QueueSubscription
+        return source.hide()
+                     .transform(Operators.<T, Batch<T>>lift((scannable, actual) ->
+                             new AdaptiveBufferSubscriber<T>(actual, this, timer.createWorker())));
+    }
+
+    /**
+     * Batches {@code source} and writes the batches one after another, feeding each write's latency back into the
+     * batch size.
+     */
+    public <T> Mono<Void> writeAll(Flux<T> source, Function<List<T>, Mono<Void>> writer) {
+        return batch(source)
+                .concatMap(batch -> {
+                    long start = System.nanoTime();
+                    return writer.apply(batch.getItems())
+                                 .doOnSuccess(v -> recordWrite(batch, System.nanoTime() - start));
+                })
+                .then();
+    }
+
+    /**
+     * Reports how long writing {@code batch} took. Only batches that were flushed because they were full can grow the
+     * batch size, since a partial batch says nothing about how a bigger one would do.
+     */
+    public synchronized void recordWrite(Batch<?> batch, long latencyNanos) {
+        lastWriteLatencyNanos = latencyNanos;
+        int size = batchSize;
+        if (latencyNanos > targetLatencyNanos) {
+            batchSize = Math.max(minBatchSize, size / 2);
+        } else if (batch.getReason() == FlushReason.SIZE) {
+            batchSize = Math.min(maxBatchSize, size + Math.max(1, size / 4));
+        }
+    }
+
+    public int currentBatchSize() {
+        return batchSize;
+    }
+
+    public long flushCount(FlushReason reason) {
+        return flushes.get(reason.ordinal());
+    }
+
+    public Metrics metrics() {
+        Map<FlushReason, Long> counts = new EnumMap<>(FlushReason.class);
+        for (FlushReason reason : FlushReason.values()) {
+            counts.put(reason, flushCount(reason));
+        }
+        return new Metrics(batchSize, Duration.ofNanos(lastWriteLatencyNanos), counts);
+    }
+
+    /**
+     * Samples {@link #metrics()} every {@code period}.
+     */
+    public Flux<Metrics> metrics(Duration period) {
+        return Flux.interval(period, timer)
+                   .map(i -> metrics());
+    }
+
+    long maxLingerNanos() {
+        return maxLingerNanos;
+    }
+
+    void recordFlush(FlushReason reason) {
+        flushes.incrementAndGet(reason.ordinal());
+    }
+
+    public enum FlushReason {
+        /**
+         * The batch reached the current batch size.
+         */
+        SIZE,
+        /**
+         * The batch waited {@code maxLinger} without filling up.
+         */
+        LINGER,
+        /**
+         * The source completed with a partial batch pending.
+         */
+        COMPLETE
+    }
+
+    public static final class Batch<T> {
+
+        private final List<T> items;
+        private final FlushReason reason;
+
+        Batch(List<T> items, FlushReason reason) {
+            this.items = items;
+            this.reason = reason;
+        }
+
+        public List<T> getItems() {
+            return items;
+        }
+
+        public FlushReason getReason() {
+            return reason;
+        }
+
+        public int size() {
+            return items.size();
+        }
+    }
+
+    public static final class Metrics {
+
+        private final int batchSize;
+        private final Duration lastWriteLatency;
+        private final Map<FlushReason, Long> flushes;
+
+        Metrics(int batchSize, Duration lastWriteLatency, Map<FlushReason, Long> flushes) {
+            this.batchSize = batchSize;
+            this.lastWriteLatency = lastWriteLatency;
+            this.flushes = flushes;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public Duration getLastWriteLatency() {
+            return lastWriteLatency;
+        }
+
+        public Map<FlushReason, Long> getFlushes() {
+            return flushes;
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics[batchSize=" + batchSize + ", lastWriteLatency=" + lastWriteLatency
+                    + ", flushes=" + flushes + "]";
+        }
+    }
+}
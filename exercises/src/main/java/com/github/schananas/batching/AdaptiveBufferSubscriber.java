@@ -0,0 +1,249 @@
+package com.github.schananas.batching;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.context.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Buffers elements into {@link AdaptiveBatcher.Batch}es sized by the batcher at the time each element arrives.
+ * <p>
+ * Upstream, the timer and downstream can all signal concurrently. The pending batch is guarded by {@code this}, while
+ * completed batches are handed to downstream through a queue drained by whichever thread wins {@code wip}.
+ */
+final class AdaptiveBufferSubscriber<T> implements CoreSubscriber<T>, Subscription {
+
+    private final CoreSubscriber<? super AdaptiveBatcher.Batch<T>> actual;
+    private final AdaptiveBatcher batcher;
+    private final Scheduler.Worker worker;
+
+    private final Queue<AdaptiveBatcher.Batch<T>> ready = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile long requested;
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final AtomicLongFieldUpdater<AdaptiveBufferSubscriber<?>> REQUESTED =
+            (AtomicLongFieldUpdater) AtomicLongFieldUpdater.newUpdater(AdaptiveBufferSubscriber.class, "requested");
+
+    private Subscription upstream;
+
+    // guarded by this
+    private List<T> current = new ArrayList<>();
+    private long upstreamOutstanding;
+    private long generation;
+    private Disposable lingerTask;
+
+    private volatile boolean done;
+    private volatile boolean cancelled;
+    private volatile Throwable error;
+
+    AdaptiveBufferSubscriber(CoreSubscriber<? super AdaptiveBatcher.Batch<T>> actual,
+                             AdaptiveBatcher batcher,
+                             Scheduler.Worker worker) {
+        this.actual = actual;
+        this.batcher = batcher;
+        this.worker = worker;
+    }
+
+    @Override
+    public Context currentContext() {
+        return actual.currentContext();
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        if (Operators.validate(upstream, s)) {
+            upstream = s;
+            actual.onSubscribe(this);
+        }
+    }
+
+    @Override
+    public void onNext(T t) {
+        synchronized (this) {
+            if (done) {
+                Operators.onNextDropped(t, currentContext());
+                return;
+            }
+            upstreamOutstanding--;
+            current.add(t);
+            if (current.size() >= batcher.currentBatchSize()) {
+                ready.offer(takeCurrent(AdaptiveBatcher.FlushReason.SIZE));
+            } else if (current.size() == 1) {
+                scheduleLinger();
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        synchronized (this) {
+            if (done) {
+                Operators.onErrorDropped(t, currentContext());
+                return;
+            }
+            error = t;
+            done = true;
+            cancelLinger();
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            if (!current.isEmpty()) {
+                ready.offer(takeCurrent(AdaptiveBatcher.FlushReason.COMPLETE));
+            }
+            done = true;
+            cancelLinger();
+        }
+        drain();
+    }
+
+    @Override
+    public void request(long n) {
+        if (Operators.validate(n)) {
+            Operators.addCap(REQUESTED, this, n);
+            drain();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            upstream.cancel();
+            worker.dispose();
+            if (wip.getAndIncrement() == 0) {
+                ready.clear();
+            }
+        }
+    }
+
+    private void lingerExpired(long batchGeneration) {
+        synchronized (this) {
+            if (done || batchGeneration != generation || current.isEmpty()) {
+                return;
+            }
+            ready.offer(takeCurrent(AdaptiveBatcher.FlushReason.LINGER));
+        }
+        drain();
+    }
+
+    private AdaptiveBatcher.Batch<T> takeCurrent(AdaptiveBatcher.FlushReason reason) {
+        AdaptiveBatcher.Batch<T> batch = new AdaptiveBatcher.Batch<>(current, reason);
+        current = new ArrayList<>(batcher.currentBatchSize());
+        generation++;
+        cancelLinger();
+        batcher.recordFlush(reason);
+        return batch;
+    }
+
+    private void scheduleLinger() {
+        long batchGeneration = generation;
+        try {
+            lingerTask = worker.schedule(() -> lingerExpired(batchGeneration),
+                                         batcher.maxLingerNanos(),
+                                         TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            if (!cancelled) {
+                throw e;
+            }
+        }
+    }
+
+    private void cancelLinger() {
+        if (lingerTask != null) {
+            lingerTask.dispose();
+            lingerTask = null;
+        }
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        for (; ; ) {
+            long r = requested;
+            long e = 0;
+            while (e != r) {
+                if (cancelled) {
+                    ready.clear();
+                    return;
+                }
+                if (error != null) {
+                    terminate();
+                    return;
+                }
+                AdaptiveBatcher.Batch<T> batch = ready.poll();
+                if (batch == null) {
+                    break;
+                }
+                actual.onNext(batch);
+                e++;
+            }
+            if (cancelled) {
+                ready.clear();
+                return;
+            }
+            if (done && (error != null || ready.isEmpty())) {
+                terminate();
+                return;
+            }
+            if (e != 0) {
+                Operators.produced(REQUESTED, this, e);
+            }
+            requestUpstream();
+
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private void terminate() {
+        ready.clear();
+        worker.dispose();
+        if (error != null) {
+            actual.onError(error);
+        } else {
+            actual.onComplete();
+        }
+    }
+
+    /**
+     * Asks upstream for just enough elements to fill the pending batch, and only while downstream is waiting for one.
+     */
+    private void requestUpstream() {
+        long toRequest;
+        synchronized (this) {
+            if (done || requested == 0 || !ready.isEmpty()) {
+                return;
+            }
+            toRequest = batcher.currentBatchSize() - current.size() - upstreamOutstanding;
+            if (toRequest <= 0) {
+                return;
+            }
+            upstreamOutstanding += toRequest;
+        }
+        upstream.request(toRequest);
+    }
+}
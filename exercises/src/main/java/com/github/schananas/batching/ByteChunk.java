@@ -0,0 +1,64 @@
+package com.github.schananas.batching;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A slice of primitive bytes borrowed from a {@link ByteChunkPool}. Fill it with {@link #put(byte)}, read it through
+ * {@link #buffer()}, and {@link #release()} it once it has been consumed. A chunk must not be touched after release.
+ */
+public final class ByteChunk {
+
+    private final ByteChunkPool pool;
+    private final ByteBuffer buffer;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    ByteChunk(ByteChunkPool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    public ByteChunk put(byte b) {
+        buffer.put(b);
+        return this;
+    }
+
+    public boolean isFull() {
+        return !buffer.hasRemaining();
+    }
+
+    /**
+     * Number of bytes written into this chunk.
+     */
+    public int size() {
+        return buffer.position();
+    }
+
+    /**
+     * A view over the bytes written so far, positioned at the first byte. Consuming the view doesn't affect the chunk.
+     */
+    public ByteBuffer buffer() {
+        return buffer.duplicate().flip();
+    }
+
+    /**
+     * The backing array of a heap chunk; valid bytes are {@code [0, size())}.
+     */
+    public byte[] array() {
+        return buffer.array();
+    }
+
+    /**
+     * Returns this chunk to its pool. Calling it more than once has no effect.
+     */
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            pool.recycle(this);
+        }
+    }
+
+    void reset() {
+        buffer.clear();
+        released.set(false);
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.schananas.batching;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of fixed-capacity {@link ByteChunk}s. When the pool is empty a new chunk is allocated, and chunks
+ * released into a full pool are left to the garbage collector, so the pool never blocks and never grows past
+ * {@code maxPooled} idle chunks.
+ */
+public final class ByteChunkPool {
+
+    private final int chunkCapacity;
+    private final boolean direct;
+    private final ArrayBlockingQueue<ByteChunk> idle;
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong acquired = new AtomicLong();
+
+    public ByteChunkPool(int chunkCapacity, int maxPooled) {
+        this(chunkCapacity, maxPooled, false);
+    }
+
+    /**
+     * @param direct whether chunks are backed by direct buffers. Direct chunks have no accessible backing array.
+     */
+    public ByteChunkPool(int chunkCapacity, int maxPooled, boolean direct) {
+        if (chunkCapacity <= 0 || maxPooled <= 0) {
+            throw new IllegalArgumentException("chunkCapacity and maxPooled must be positive");
+        }
+        this.chunkCapacity = chunkCapacity;
+        this.direct = direct;
+        this.idle = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * Takes an empty chunk out of the pool. The caller owns it until {@link ByteChunk#release()} is called.
+     */
+    public ByteChunk acquire() {
+        acquired.incrementAndGet();
+        ByteChunk chunk = idle.poll();
+        if (chunk == null) {
+            allocated.incrementAndGet();
+            ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(chunkCapacity) : ByteBuffer.allocate(chunkCapacity);
+            chunk = new ByteChunk(this, buffer);
+        }
+        chunk.reset();
+        return chunk;
+    }
+
+    void recycle(ByteChunk chunk) {
+        idle.offer(chunk);
+    }
+
+    public int chunkCapacity() {
+        return chunkCapacity;
+    }
+
+    /**
+     * Number of chunks sitting idle in the pool.
+     */
+    public int idleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Number of chunks the pool had to allocate because none was idle. Stays flat once the pool is warmed up.
+     */
+    public long allocatedCount() {
+        return allocated.get();
+    }
+
+    public long acquiredCount() {
+        return acquired.get();
+    }
+}
@@ -0,0 +1,328 @@
+package com.github.schananas.batching;
+
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends chunks to a file through a {@link FileChannel}, one chunk per write, and reports how long each write took.
+ * Writes are serialized, so chunks land in the file in the order their writes ran.
+ */
+public final class ChunkWriter implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final FsyncPolicy fsyncPolicy;
+    private final Scheduler ioScheduler;
+    private final Disposable periodicSync;
+    private final Sinks.Many<WriteReport> reports = Sinks.many().multicast().directBestEffort();
+
+    private final Object lock = new Object();
+    private final long openedAtNanos = System.nanoTime();
+    private long writes;
+    private long bytesWritten;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+    private boolean dirty;
+    private boolean closed;
+
+    private ChunkWriter(FileChannel channel, FsyncPolicy fsyncPolicy, Scheduler ioScheduler) {
+        this.channel = channel;
+        this.fsyncPolicy = fsyncPolicy;
+        this.ioScheduler = ioScheduler;
+        this.periodicSync = fsyncPolicy.isPeriodic()
+                ? ioScheduler.schedulePeriodically(this::syncIfDirty,
+                                                   fsyncPolicy.intervalNanos,
+                                                   fsyncPolicy.intervalNanos,
+                                                   TimeUnit.NANOSECONDS)
+                : Disposables.disposed();
+    }
+
+    /**
+     * Opens (or creates) {@code file} for appending. Blocking file I/O runs on {@link Schedulers#boundedElastic()}.
+     */
+    public static ChunkWriter open(Path file, FsyncPolicy fsyncPolicy) {
+        return open(file, fsyncPolicy, Schedulers.boundedElastic());
+    }
+
+    public static ChunkWriter open(Path file, FsyncPolicy fsyncPolicy, Scheduler ioScheduler) {
+        try {
+            FileChannel channel = FileChannel.open(file,
+                                                   StandardOpenOption.CREATE,
+                                                   StandardOpenOption.WRITE,
+                                                   StandardOpenOption.APPEND);
+            return new ChunkWriter(channel, fsyncPolicy, ioScheduler);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open " + file, e);
+        }
+    }
+
+    public Mono<WriteReport> write(List<Byte> chunk) {
+        return Mono.defer(() -> {
+            byte[] bytes = new byte[chunk.size()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = chunk.get(i);
+            }
+            return write(ByteBuffer.wrap(bytes));
+        });
+    }
+
+    public Mono<WriteReport> write(byte[] chunk, int offset, int length) {
+        return Mono.defer(() -> write(ByteBuffer.wrap(chunk, offset, length)));
+    }
+
+    /**
+     * Writes the remaining bytes of {@code chunk}. The buffer's position is advanced to its limit once the returned
+     * {@code Mono} completes, so it must not be reused before that.
+     */
+    public Mono<WriteReport> write(ByteBuffer chunk) {
+        return Mono.fromCallable(() -> writeBlocking(chunk))
+                   .subscribeOn(ioScheduler);
+    }
+
+    /**
+     * Hot stream of reports, one per completed write. Subscribers that can't keep up miss reports instead of slowing
+     * down the writer.
+     */
+    public Flux<WriteReport> reports() {
+        return reports.asFlux();
+    }
+
+    public Stats stats() {
+        synchronized (lock) {
+            long elapsedNanos = Math.max(1, System.nanoTime() - openedAtNanos);
+            return new Stats(writes,
+                             bytesWritten,
+                             bytesWritten * 1_000_000_000d / elapsedNanos,
+                             writes == 0 ? 0 : totalLatencyNanos / writes,
+                             maxLatencyNanos);
+        }
+    }
+
+    /**
+     * Forces any unsynced writes to disk.
+     */
+    public Mono<Void> sync() {
+        return Mono.fromCallable(() -> {
+                       synchronized (lock) {
+                           force();
+                       }
+                       return true;
+                   })
+                   .subscribeOn(ioScheduler)
+                   .then();
+    }
+
+    @Override
+    public void close() {
+        periodicSync.dispose();
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (fsyncPolicy != FsyncPolicy.NEVER) {
+                    force();
+                }
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                reports.tryEmitComplete();
+            }
+        }
+    }
+
+    private WriteReport writeBlocking(ByteBuffer chunk) throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Writer is closed");
+            }
+            long start = System.nanoTime();
+            int size = chunk.remaining();
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+            dirty = true;
+            boolean synced = false;
+            if (fsyncPolicy == FsyncPolicy.PER_BATCH) {
+                force();
+                synced = true;
+            }
+            long latency = System.nanoTime() - start;
+
+            writes++;
+            bytesWritten += size;
+            totalLatencyNanos += latency;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+
+            WriteReport report = new WriteReport(size, latency, synced);
+            reports.tryEmitNext(report);
+            return report;
+        }
+    }
+
+    private void syncIfDirty() {
+        synchronized (lock) {
+            if (!closed) {
+                try {
+                    force();
+                } catch (IOException e) {
+                    reports.tryEmitError(e);
+                }
+            }
+        }
+    }
+
+    private void force() throws IOException {
+        if (dirty) {
+            channel.force(false);
+            dirty = false;
+        }
+    }
+
+    /**
+     * When written data is forced to the storage device.
+     */
+    public static final class FsyncPolicy {
+
+        /**
+         * Every write is followed by an fsync before it completes.
+         */
+        public static final FsyncPolicy PER_BATCH = new FsyncPolicy(0);
+
+        /**
+         * Never fsync while running, leave it to the OS. Data is still flushed when the channel closes.
+         */
+        public static final FsyncPolicy NEVER = new FsyncPolicy(-1);
+
+        private final long intervalNanos;
+
+        private FsyncPolicy(long intervalNanos) {
+            this.intervalNanos = intervalNanos;
+        }
+
+        /**
+         * Fsync in the background at most once per {@code interval}, and only if something was written since the
+         * last one. Up to {@code interval} worth of completed writes can be lost on power failure.
+         */
+        public static FsyncPolicy every(Duration interval) {
+            if (interval.isZero() || interval.isNegative()) {
+                throw new IllegalArgumentException("interval must be positive: " + interval);
+            }
+            return new FsyncPolicy(interval.toNanos());
+        }
+
+        boolean isPeriodic() {
+            return intervalNanos > 0;
+        }
+
+        @Override
+        public String toString() {
+            if (this == PER_BATCH) {
+                return "FsyncPolicy[per batch]";
+            }
+            if (this == NEVER) {
+                return "FsyncPolicy[never]";
+            }
+            return "FsyncPolicy[every " + Duration.ofNanos(intervalNanos) + "]";
+        }
+    }
+
+    public static final class WriteReport {
+
+        private final int bytes;
+        private final long latencyNanos;
+        private final boolean synced;
+
+        WriteReport(int bytes, long latencyNanos, boolean synced) {
+            this.bytes = bytes;
+            this.latencyNanos = latencyNanos;
+            this.synced = synced;
+        }
+
+        public int getBytes() {
+            return bytes;
+        }
+
+        public Duration getLatency() {
+            return Duration.ofNanos(latencyNanos);
+        }
+
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        /**
+         * Whether this write was forced to disk before it completed.
+         */
+        public boolean isSynced() {
+            return synced;
+        }
+
+        @Override
+        public String toString() {
+            return "WriteReport[bytes=" + bytes + ", latency=" + latencyNanos / 1000 + "us, synced=" + synced + "]";
+        }
+    }
+
+    public static final class Stats {
+
+        private final long writes;
+        private final long bytes;
+        private final double bytesPerSecond;
+        private final long meanLatencyNanos;
+        private final long maxLatencyNanos;
+
+        Stats(long writes, long bytes, double bytesPerSecond, long meanLatencyNanos, long maxLatencyNanos) {
+            this.writes = writes;
+            this.bytes = bytes;
+            this.bytesPerSecond = bytesPerSecond;
+            this.meanLatencyNanos = meanLatencyNanos;
+            this.maxLatencyNanos = maxLatencyNanos;
+        }
+
+        public long getWrites() {
+            return writes;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Bytes written per second of wall-clock time since the writer was opened.
+         */
+        public double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public Duration getMeanLatency() {
+            return Duration.ofNanos(meanLatencyNanos);
+        }
+
+        public Duration getMaxLatency() {
+            return Duration.ofNanos(maxLatencyNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "Stats[writes=" + writes + ", bytes=" + bytes + ", bytes/s=" + (long) bytesPerSecond
+                    + ", meanLatency=" + meanLatencyNanos / 1000 + "us, maxLatency=" + maxLatencyNanos / 1000 + "us]";
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.github.schananas.batching;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Sends items keyed by aggregate, one send in flight per aggregate at a time. Items that arrive for an aggregate while
+ * its previous send is in flight are queued and go out together in the next send, so a burst for one aggregate costs a
+ * couple of round trips instead of one per item, and items of an aggregate are sent in arrival order.
+ * <p>
+ * When a batched send fails, every item in it fails with the batch's error, since the batch may have been partly applied.
+ * With a {@code singleSender}, the items are retried one by one in order instead, so every item gets its own
+ * {@link Outcome}; items the failed batch did apply are then sent twice, so both senders have to be idempotent.
+ * Queues of idle aggregates are dropped, so memory is bounded by the number of pending items.
+ */
+public final class CoalescingGateway<T> {
+
+    private final Function<? super T, String> keyOf;
+    private final BiFunction<String, List<T>, Mono<Void>> batchSender;
+    private final Function<? super T, Mono<Void>> singleSender;
+    private final int maxBatchSize;
+
+    private final ConcurrentHashMap<String, AggregateQueue<T>> queues = new ConcurrentHashMap<>();
+    private final AtomicLong sends = new AtomicLong();
+    private final AtomicLong sentItems = new AtomicLong();
+    private final AtomicLong failedItems = new AtomicLong();
+
+    /**
+     * Gateway that fails every item of a failed batch.
+     *
+     * @param batchSender  sends a non-empty list of items of one aggregate in a single round trip
+     * @param maxBatchSize upper bound on items per batched send
+     */
+    public CoalescingGateway(Function<? super T, String> keyOf,
+                             BiFunction<String, List<T>, Mono<Void>> batchSender,
+                             int maxBatchSize) {
+        this(keyOf, batchSender, null, maxBatchSize);
+    }
+
+    /**
+     * Gateway that retries the items of a failed batch one by one. Only use it when sending an item twice is harmless.
+     *
+     * @param batchSender  sends a non-empty list of items of one aggregate in a single round trip, idempotently
+     * @param singleSender sends one item, idempotently, used to find out which items of a failed batch are at fault
+     * @param maxBatchSize upper bound on items per batched send
+     */
+    public CoalescingGateway(Function<? super T, String> keyOf,
+                             BiFunction<String, List<T>, Mono<Void>> batchSender,
+                             Function<? super T, Mono<Void>> singleSender,
+                             int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.keyOf = keyOf;
+        this.batchSender = batchSender;
+        this.singleSender = singleSender;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sends every item of {@code source} and emits one {@link Outcome} per item once it was sent or failed. At most
+     * {@code maxPending} items are requested from {@code source} ahead of their outcome. A failed item doesn't stop
+     * later items, of the same aggregate or not, from being sent.
+     * <p>
+     * Sends already in flight run to completion if the returned {@code Flux} is cancelled; items still queued are
+     * dropped without being sent.
+     */
+    public Flux<Outcome<T>> process(Flux<T> source, int maxPending) {
+        return source.flatMap(this::submit, maxPending);
+    }
+
+    /**
+     * Queues {@code item} behind other pending items of its aggregate. The returned {@code Mono} completes with the
+     * item's outcome and never errors. Cancelling it before the item's batch goes out drops the item.
+     */
+    public Mono<Outcome<T>> submit(T item) {
+        return Mono.create(sink -> {
+            String key = keyOf.apply(item);
+            Pending<T> pending = new Pending<>(item, sink);
+            sink.onCancel(() -> pending.cancelled = true);
+            for (; ; ) {
+                AggregateQueue<T> queue = queues.computeIfAbsent(key, k -> new AggregateQueue<>());
+                synchronized (queue) {
+                    if (queue.retired) {
+                        continue;
+                    }
+                    queue.pending.add(pending);
+                }
+                sendNext(key, queue);
+                return;
+            }
+        });
+    }
+
+    /**
+     * Number of aggregates with items queued or in flight.
+     */
+    public int activeAggregates() {
+        return queues.size();
+    }
+
+    public long sendCount() {
+        return sends.get();
+    }
+
+    public long sentItemCount() {
+        return sentItems.get();
+    }
+
+    public long failedItemCount() {
+        return failedItems.get();
+    }
+
+    private void sendNext(String key, AggregateQueue<T> queue) {
+        List<Pending<T>> batch;
+        synchronized (queue) {
+            if (queue.inFlight) {
+                return;
+            }
+            batch = new ArrayList<>(Math.min(queue.pending.size(), maxBatchSize));
+            Pending<T> next;
+            while (batch.size() < maxBatchSize && (next = queue.pending.poll()) != null) {
+                // nobody waits for the outcome of a cancelled item, so it isn't sent
+                if (!next.cancelled) {
+                    batch.add(next);
+                }
+            }
+            if (batch.isEmpty()) {
+                queue.retired = true;
+                queues.remove(key, queue);
+                return;
+            }
+            queue.inFlight = true;
+        }
+        send(key, batch).doFinally(s -> {
+                            synchronized (queue) {
+                                queue.inFlight = false;
+                            }
+                            sendNext(key, queue);
+                        })
+                        .subscribe();
+    }
+
+    private Mono<Void> send(String key, List<Pending<T>> batch) {
+        List<T> items = new ArrayList<>(batch.size());
+        for (Pending<T> pending : batch) {
+            items.add(pending.item);
+        }
+        sends.incrementAndGet();
+        return Mono.defer(() -> batchSender.apply(key, items))
+                   .doOnSuccess(v -> batch.forEach(p -> complete(p, null)))
+                   .onErrorResume(e -> {
+                       if (batch.size() == 1 || singleSender == null) {
+                           batch.forEach(p -> complete(p, e));
+                           return Mono.empty();
+                       }
+                       return Flux.fromIterable(batch)
+                                  .concatMap(p -> Mono.defer(() -> singleSender.apply(p.item))
+                                                      .doOnSuccess(v -> complete(p, null))
+                                                      .onErrorResume(itemError -> {
+                                                          complete(p, itemError);
+                                                          return Mono.empty();
+                                                      }))
+                                  .then();
+                   });
+    }
+
+    private void complete(Pending<T> pending, Throwable error) {
+        if (error == null) {
+            sentItems.incrementAndGet();
+        } else {
+            failedItems.incrementAndGet();
+        }
+        pending.sink.success(new Outcome<>(pending.item, error));
+    }
+
+    private static final class AggregateQueue<T> {
+
+        final ArrayDeque<Pending<T>> pending = new ArrayDeque<>();
+        boolean inFlight;
+        boolean retired;
+    }
+
+    private static final class Pending<T> {
+
+        final T item;
+        final MonoSink<Outcome<T>> sink;
+        volatile boolean cancelled;
+
+        Pending(T item, MonoSink<Outcome<T>> sink) {
+            this.item = item;
+            this.sink = sink;
+        }
+    }
+
+    public static final class Outcome<T> {
+
+        private final T item;
+        private final Throwable error;
+
+        Outcome(T item, Throwable error) {
+            this.item = item;
+            this.error = error;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * Why the item couldn't be sent, or {@code null} if it was.
+         */
+        public Throwable getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package com.github.schananas.batching;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal for commands, kept as a directory of append-only segment files.
+ * <p>
+ * Appends and acknowledgements are queued and written by a single committer thread. Whatever queued up while the
+ * previous commit was being written goes out in the next one, with a single write and a single fsync, so the cost of an
+ * fsync is shared by every command that arrived in the same tick. Batches holding only acknowledgements aren't
+ * fsynced: losing one just means the command is replayed again, which the journal allows anyway.
+ * <p>
+ * On {@link #open(Path, long)}, commands that were appended but never acknowledged are recovered and available from
+ * {@link #unacknowledged()}. Segments are rolled once they reach {@code maxSegmentBytes}, and the oldest segments are
+ * deleted as soon as every command in them has been acknowledged.
+ */
+public final class CommandJournal implements AutoCloseable {
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = Integer.BYTES * 2;
+    private static final byte APPEND = 1;
+    private static final byte ACK = 2;
+
+    private final Path dir;
+    private final long maxSegmentBytes;
+    private final Scheduler committer;
+    private final List<Entry> recovered;
+
+    private final Queue<Op> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean closed;
+
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong committedOps = new AtomicLong();
+    private final AtomicInteger segmentCount = new AtomicInteger();
+
+    // committer-thread state
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Map<Long, Segment> unacked = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+    private Segment active;
+    private FileChannel activeChannel;
+    private long nextSeq;
+    // highest sequence number in any replayed record, appended or acknowledged
+    private long maxReplayedSeq = -1;
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+
+    private CommandJournal(Path dir, long maxSegmentBytes) throws IOException {
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.recovered = recover();
+        this.committer = Schedulers.newSingle("command-journal", true);
+    }
+
+    /**
+     * Opens the journal in {@code dir}, creating it if needed, and recovers unacknowledged commands.
+     */
+    public static CommandJournal open(Path dir, long maxSegmentBytes) {
+        try {
+            Files.createDirectories(dir);
+            return new CommandJournal(dir, maxSegmentBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open journal in " + dir, e);
+        }
+    }
+
+    /**
+     * Durably appends a command. Completes with the command's sequence number once it has been fsynced.
+     */
+    public Mono<Long> append(String aggregateId, String payload) {
+        return Mono.create(sink -> submit(new Op(APPEND, 0, aggregateId, payload, sink)));
+    }
+
+    /**
+     * Marks the command appended as {@code seq} as done, so it won't be replayed and its segment can be deleted.
+     */
+    public Mono<Void> acknowledge(long seq) {
+        return Mono.<Long>create(sink -> submit(new Op(ACK, seq, null, null, sink)))
+                   .then();
+    }
+
+    /**
+     * Commands that were appended but not acknowledged when the journal was opened, in append order. They stay in the
+     * journal until acknowledged.
+     */
+    public Flux<Entry> unacknowledged() {
+        return Flux.fromIterable(recovered);
+    }
+
+    /**
+     * Number of commits, each costing one write and at most one fsync.
+     */
+    public long commitCount() {
+        return commits.get();
+    }
+
+    /**
+     * Appends and acknowledgements committed so far. Divided by {@link #commitCount()}, the average group size.
+     */
+    public long committedCount() {
+        return committedOps.get();
+    }
+
+    public int segmentCount() {
+        return segmentCount.get();
+    }
+
+    /**
+     * Commits anything still queued and closes the journal. Appends submitted afterwards fail.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        CountDownLatch done = new CountDownLatch(1);
+        committer.schedule(() -> {
+            try {
+                commitPending();
+                if (activeChannel != null) {
+                    activeChannel.force(false);
+                    activeChannel.close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            committer.dispose();
+        }
+    }
+
+    private void submit(Op op) {
+        if (closed) {
+            op.sink.error(new IllegalStateException("Journal is closed"));
+            return;
+        }
+        pending.offer(op);
+        if (wip.getAndIncrement() == 0) {
+            committer.schedule(this::commitLoop);
+        }
+    }
+
+    private void commitLoop() {
+        int missed = 1;
+        for (; ; ) {
+            commitPending();
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private void commitPending() {
+        List<Op> batch = new ArrayList<>();
+        Op op;
+        while ((op = pending.poll()) != null) {
+            batch.add(op);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            commit(batch);
+        } catch (IOException | RuntimeException e) {
+            for (Op failed : batch) {
+                failed.sink.error(e);
+            }
+        }
+    }
+
+    private void commit(List<Op> batch) throws IOException {
+        if (active.size >= maxSegmentBytes) {
+            roll();
+        }
+        long firstSeq = nextSeq;
+        writeBuffer.clear();
+        boolean hasAppends = false;
+        for (Op op : batch) {
+            if (op.type == APPEND) {
+                op.seq = nextSeq++;
+                hasAppends = true;
+            }
+            encode(op);
+        }
+        writeBuffer.flip();
+        int size = writeBuffer.remaining();
+        try {
+            while (writeBuffer.hasRemaining()) {
+                activeChannel.write(writeBuffer);
+            }
+            if (hasAppends) {
+                activeChannel.force(false);
+            }
+        } catch (IOException e) {
+            nextSeq = firstSeq;
+            activeChannel.truncate(active.size);
+            throw e;
+        }
+        active.size += size;
+        commits.incrementAndGet();
+        committedOps.addAndGet(batch.size());
+
+        for (Op op : batch) {
+            if (op.type == APPEND) {
+                active.unacked++;
+                unacked.put(op.seq, active);
+            } else {
+                Segment segment = unacked.remove(op.seq);
+                if (segment != null) {
+                    segment.unacked--;
+                }
+            }
+            op.sink.success(op.seq);
+        }
+        deleteAcknowledgedSegments();
+    }
+
+    private void encode(Op op) {
+        byte[] key = op.type == APPEND ? op.aggregateId.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] payload = op.type == APPEND ? op.payload.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int bodyLength = 1 + Long.BYTES + (op.type == APPEND ? Integer.BYTES + key.length + payload.length : 0);
+        ensureCapacity(HEADER_BYTES + bodyLength);
+
+        int start = writeBuffer.position();
+        writeBuffer.putInt(bodyLength)
+                   .putInt(0)
+                   .put(op.type)
+                   .putLong(op.seq);
+        if (op.type == APPEND) {
+            writeBuffer.putInt(key.length)
+                       .put(key)
+                       .put(payload);
+        }
+        crc.reset();
+        crc.update(writeBuffer.array(), start + HEADER_BYTES, bodyLength);
+        writeBuffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (writeBuffer.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(writeBuffer.capacity() * 2, writeBuffer.position() + bytes));
+            writeBuffer.flip();
+            bigger.put(writeBuffer);
+            writeBuffer = bigger;
+        }
+    }
+
+    private void roll() throws IOException {
+        activeChannel.force(false);
+        activeChannel.close();
+        openSegment(nextSeq);
+    }
+
+    private void openSegment(long baseSeq) throws IOException {
+        Path file = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, baseSeq, SEGMENT_SUFFIX));
+        activeChannel = FileChannel.open(file,
+                                         StandardOpenOption.CREATE,
+                                         StandardOpenOption.WRITE,
+                                         StandardOpenOption.APPEND);
+        active = segments.computeIfAbsent(baseSeq, seq -> new Segment(file));
+        active.size = activeChannel.size();
+        segmentCount.set(segments.size());
+    }
+
+    /**
+     * Deletes the oldest segments for as long as every command in them has been acknowledged. Acknowledgements stored
+     * in later segments may refer to commands in deleted ones; replay simply ignores those.
+     */
+    private void deleteAcknowledgedSegments() throws IOException {
+        Iterator<Segment> it = segments.values().iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            if (segment == active || segment.unacked > 0) {
+                break;
+            }
+            Files.deleteIfExists(segment.file);
+            it.remove();
+        }
+        segmentCount.set(segments.size());
+    }
+
+    private List<Entry> recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+
+        Map<Long, Entry> entries = new LinkedHashMap<>();
+        long lastBase = 0;
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            String name = file.getFileName().toString();
+            long base = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(file);
+            segments.put(base, segment);
+            lastBase = base;
+            replaySegment(segment, i == files.size() - 1, entries);
+        }
+
+        // acknowledged commands count too, or their numbers would be handed out again
+        nextSeq = Math.max(maxReplayedSeq + 1, lastBase);
+        openSegment(segments.isEmpty() ? nextSeq : lastBase);
+        deleteAcknowledgedSegments();
+        return List.copyOf(entries.values());
+    }
+
+    private void replaySegment(Segment segment, boolean last, Map<Long, Entry> entries) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+            data = ByteBuffer.allocate((int) channel.size());
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+                // keep reading
+            }
+        }
+        data.flip();
+
+        while (data.hasRemaining()) {
+            int start = data.position();
+            if (!readRecord(data, segment, entries)) {
+                if (!last) {
+                    throw new IOException("Corrupt record at offset " + start + " of " + segment.file);
+                }
+                // a commit torn by a crash; it was never acknowledged to anyone
+                try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.WRITE)) {
+                    channel.truncate(start);
+                }
+                break;
+            }
+        }
+    }
+
+    private boolean readRecord(ByteBuffer data, Segment segment, Map<Long, Entry> entries) {
+        if (data.remaining() < HEADER_BYTES) {
+            return false;
+        }
+        int bodyLength = data.getInt();
+        int checksum = data.getInt();
+        if (bodyLength < 1 + Long.BYTES || bodyLength > data.remaining()) {
+            return false;
+        }
+        crc.reset();
+        crc.update(data.array(), data.position(), bodyLength);
+        if ((int) crc.getValue() != checksum) {
+            return false;
+        }
+        int end = data.position() + bodyLength;
+        byte type = data.get();
+        long seq = data.getLong();
+        maxReplayedSeq = Math.max(maxReplayedSeq, seq);
+        if (type == APPEND) {
+            byte[] key = new byte[data.getInt()];
+            data.get(key);
+            byte[] payload = new byte[end - data.position()];
+            data.get(payload);
+            entries.put(seq, new Entry(seq,
+                                       new String(key, StandardCharsets.UTF_8),
+                                       new String(payload, StandardCharsets.UTF_8)));
+            segment.unacked++;
+            unacked.put(seq, segment);
+        } else {
+            entries.remove(seq);
+            Segment owner = unacked.remove(seq);
+            if (owner != null) {
+                owner.unacked--;
+            }
+        }
+        data.position(end);
+        segment.size = end;
+        return true;
+    }
+
+    private static final class Segment {
+
+        final Path file;
+        long size;
+        int unacked;
+
+        Segment(Path file) {
+            this.file = file;
+        }
+    }
+
+    private static final class Op {
+
+        final byte type;
+        final String aggregateId;
+        final String payload;
+        final MonoSink<Long> sink;
+        long seq;
+
+        Op(byte type, long seq, String aggregateId, String payload, MonoSink<Long> sink) {
+            this.type = type;
+            this.seq = seq;
+            this.aggregateId = aggregateId;
+            this.payload = payload;
+            this.sink = sink;
+        }
+    }
+
+    public static final class Entry {
+
+        private final long seq;
+        private final String aggregateId;
+        private final String payload;
+
+        Entry(long seq, String aggregateId, String payload) {
+            this.seq = seq;
+            this.aggregateId = aggregateId;
+            this.payload = payload;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public String getAggregateId() {
+            return aggregateId;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.schananas.batching;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Same semantics as {@code groupBy(keyOf).flatMap(group -> group.concatMap(handler))}: items with the same key are
+ * handled one after another, items with different keys in parallel. Unlike {@code groupBy}, a group that has had
+ * nothing to do for {@code idleTtl} is dropped, and a new one is created when its key shows up again.
+ * <p>
+ * A group is only dropped while it has no queued and no running item, so eviction can't reorder or lose items of a
+ * key, even when a new item races with the eviction.
+ */
+public final class IdleEvictingGroups<T> {
+
+    private final Function<? super T, ?> keyOf;
+    private final long idleTtlNanos;
+    private final Scheduler timer;
+
+    private final ConcurrentHashMap<Object, Group<T>> groups = new ConcurrentHashMap<>();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    public IdleEvictingGroups(Function<? super T, ?> keyOf, Duration idleTtl) {
+        this(keyOf, idleTtl, Schedulers.parallel());
+    }
+
+    public IdleEvictingGroups(Function<? super T, ?> keyOf, Duration idleTtl, Scheduler timer) {
+        if (idleTtl.isNegative()) {
+            throw new IllegalArgumentException("idleTtl must not be negative: " + idleTtl);
+        }
+        this.keyOf = keyOf;
+        this.idleTtlNanos = idleTtl.toNanos();
+        this.timer = timer;
+    }
+
+    /**
+     * Handles every item of {@code source} in its group, emitting handler results as they complete. At most
+     * {@code maxPending} items are requested from {@code source} ahead of their result. The first handler error
+     * cancels the rest, like it would with {@code groupBy}.
+     */
+    public <R> Flux<R> process(Flux<T> source, Function<? super T, Mono<R>> handler, int maxPending) {
+        return source.flatMap(item -> submit(item, handler), maxPending);
+    }
+
+    /**
+     * Queues {@code item} in its group and completes with the handler's result once it ran. Cancelling the returned
+     * {@code Mono} skips the item if it's still queued, or cancels its handler if it's running.
+     */
+    public <R> Mono<R> submit(T item, Function<? super T, Mono<R>> handler) {
+        return Mono.create(sink -> {
+            Object key = keyOf.apply(item);
+            Pending<T> pending = new Pending<>(item, handler, sink);
+            sink.onCancel(pending::cancel);
+            for (; ; ) {
+                Group<T> group = groups.computeIfAbsent(key, k -> {
+                    created.incrementAndGet();
+                    return new Group<>();
+                });
+                synchronized (group) {
+                    if (group.evicted) {
+                        continue;
+                    }
+                    group.queue.add(pending);
+                    if (group.idleTimer != null) {
+                        group.idleTimer.dispose();
+                        group.idleTimer = null;
+                    }
+                }
+                runNext(key, group);
+                return;
+            }
+        });
+    }
+
+    /**
+     * Groups currently alive, busy or idle.
+     */
+    public int liveGroups() {
+        return groups.size();
+    }
+
+    public long createdGroups() {
+        return created.get();
+    }
+
+    public long evictedGroups() {
+        return evicted.get();
+    }
+
+    private void runNext(Object key, Group<T> group) {
+        Pending<T> next;
+        synchronized (group) {
+            if (group.busy) {
+                return;
+            }
+            do {
+                next = group.queue.poll();
+            } while (next != null && next.cancelled);
+            if (next == null) {
+                if (group.idleTimer != null) {
+                    group.idleTimer.dispose();
+                }
+                group.idleTimer = timer.schedule(() -> evictIfIdle(key, group), idleTtlNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+            group.busy = true;
+        }
+        next.run(() -> {
+            synchronized (group) {
+                group.busy = false;
+            }
+            runNext(key, group);
+        });
+    }
+
+    private void evictIfIdle(Object key, Group<T> group) {
+        synchronized (group) {
+            if (group.evicted || group.busy || !group.queue.isEmpty()) {
+                return;
+            }
+            group.evicted = true;
+        }
+        groups.remove(key, group);
+        evicted.incrementAndGet();
+    }
+
+    private static final class Group<T> {
+
+        final ArrayDeque<Pending<T>> queue = new ArrayDeque<>();
+        boolean busy;
+        boolean evicted;
+        Disposable idleTimer;
+    }
+
+    private static final class Pending<T> {
+
+        final T item;
+        final Function<? super T, ? extends Mono<?>> handler;
+        final MonoSink<Object> sink;
+        volatile boolean cancelled;
+        volatile Disposable running;
+
+        @SuppressWarnings("unchecked")
+        <R> Pending(T item, Function<? super T, Mono<R>> handler, MonoSink<R> sink) {
+            this.item = item;
+            this.handler = handler;
+            this.sink = (MonoSink<Object>) sink;
+        }
+
+        void run(Runnable onDone) {
+            running = Mono.defer(() -> handler.apply(item))
+                          .doFinally(s -> onDone.run())
+                          .subscribe(sink::success, sink::error, sink::success);
+            if (cancelled) {
+                running.dispose();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            Disposable d = running;
+            if (d != null) {
+                d.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.github.schananas.batching;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Runs items through a fixed number of lanes, hashing each item's key onto one of them. Items in a lane are handled
+ * one after another, lanes run in parallel. All items with the same key share a lane, so they keep their relative
+ * order, while the number of groups, and the memory and concurrency they take, stays at {@code lanes} no matter how
+ * many keys there are.
+ * <p>
+ * The price is head-of-line blocking: a slow key delays the other keys hashed onto its lane. {@link #depths()} shows
+ * which lane is backing up.
+ */
+public final class OrderedLanes<T> {
+
+    private static final int DEFAULT_LANE_PREFETCH = 32;
+
+    private final int lanes;
+    private final Function<? super T, ?> keyOf;
+    private final int lanePrefetch;
+    private final AtomicLongArray depth;
+    private final AtomicLongArray maxDepth;
+    private final AtomicLongArray completed;
+
+    public OrderedLanes(int lanes, Function<? super T, ?> keyOf) {
+        this(lanes, keyOf, DEFAULT_LANE_PREFETCH);
+    }
+
+    /**
+     * @param lanePrefetch how many items each lane may hold queued ahead of the one being handled; the lanes share a
+     *                     {@code groupBy} prefetch of {@code lanePrefetch * lanes}
+     */
+    public OrderedLanes(int lanes, Function<? super T, ?> keyOf, int lanePrefetch) {
+        if (lanes <= 0) {
+            throw new IllegalArgumentException("lanes must be positive: " + lanes);
+        }
+        this.lanes = lanes;
+        this.keyOf = keyOf;
+        this.lanePrefetch = lanePrefetch;
+        this.depth = new AtomicLongArray(lanes);
+        this.maxDepth = new AtomicLongArray(lanes);
+        this.completed = new AtomicLongArray(lanes);
+    }
+
+    /**
+     * Handles every item of {@code source} with {@code handler}, waiting for an item's handler to complete before the
+     * next item of the same lane is handled. Fails as soon as any handler fails.
+     */
+    public Mono<Void> process(Flux<T> source, Function<? super T, Mono<Void>> handler) {
+        return Mono.defer(() -> {
+            Ledger ledger = new Ledger(lanes);
+            return source.map(item -> enter(item, ledger))
+                         .groupBy(entry -> entry.lane, lanePrefetch * lanes)
+                         .flatMap(lane -> lane.concatMap(entry -> Mono.defer(() -> handler.apply(entry.item))
+                                                                      .doFinally(s -> leave(entry.lane, ledger)),
+                                                         lanePrefetch),
+                                  lanes)
+                         // items still queued when the stream errors or is cancelled never reach their handler
+                         .doFinally(s -> release(ledger))
+                         .then();
+        });
+    }
+
+    /**
+     * The lane all items with {@code key} are handled on.
+     */
+    public int laneOf(Object key) {
+        int h = key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), lanes);
+    }
+
+    public int lanes() {
+        return lanes;
+    }
+
+    /**
+     * Items currently waiting in or being handled by each lane, indexed by lane.
+     */
+    public long[] depths() {
+        long[] result = new long[lanes];
+        for (int i = 0; i < lanes; i++) {
+            result[i] = depth.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Highest depth each lane has reached so far, indexed by lane.
+     */
+    public long[] maxDepths() {
+        long[] result = new long[lanes];
+        for (int i = 0; i < lanes; i++) {
+            result[i] = maxDepth.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Items handled by each lane so far, successfully or not.
+     */
+    public long[] completed() {
+        long[] result = new long[lanes];
+        for (int i = 0; i < lanes; i++) {
+            result[i] = completed.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Samples {@link #depths()} every {@code period}.
+     */
+    public Flux<long[]> depths(Duration period) {
+        return Flux.interval(period)
+                   .map(i -> depths());
+    }
+
+    private Entry<T> enter(T item, Ledger ledger) {
+        int lane = laneOf(keyOf.apply(item));
+        ledger.held.incrementAndGet(lane);
+        long d = depth.incrementAndGet(lane);
+        maxDepth.accumulateAndGet(lane, d, Math::max);
+        if (ledger.released) {
+            // raced with release, which may have missed this item
+            release(ledger);
+        }
+        return new Entry<>(lane, item);
+    }
+
+    private void leave(int lane, Ledger ledger) {
+        completed.incrementAndGet(lane);
+        for (; ; ) {
+            long held = ledger.held.get(lane);
+            if (held == 0) {
+                // already taken off by release
+                return;
+            }
+            if (ledger.held.compareAndSet(lane, held, held - 1)) {
+                depth.decrementAndGet(lane);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes whatever one {@link #process} call still holds off the depths, once it terminated.
+     */
+    private void release(Ledger ledger) {
+        ledger.released = true;
+        for (int lane = 0; lane < lanes; lane++) {
+            long held = ledger.held.getAndSet(lane, 0);
+            if (held != 0) {
+                depth.addAndGet(lane, -held);
+            }
+        }
+    }
+
+    /**
+     * Items one {@link #process} call added to the depths and hasn't taken off yet, per lane.
+     */
+    private static final class Ledger {
+
+        final AtomicLongArray held;
+        volatile boolean released;
+
+        Ledger(int lanes) {
+            this.held = new AtomicLongArray(lanes);
+        }
+    }
+
+    private static final class Entry<T> {
+
+        final int lane;
+        final T item;
+
+        Entry(int lane, T item) {
+            this.lane = lane;
+            this.item = item;
+        }
+    }
+}
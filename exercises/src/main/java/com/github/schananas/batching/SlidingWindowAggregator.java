@@ -0,0 +1,215 @@
+package com.github.schananas.batching;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates a stream of readings into a ring of fixed-length time buckets and answers sum, count, min, max and rate
+ * over any window up to the length of the ring, without keeping the readings themselves.
+ * <p>
+ * Recording is lock-free. Sums and counts are {@link LongAdder}s, so concurrent writers don't contend on one cell.
+ * When a writer finds a bucket left over from a previous lap of the ring, it swaps in a fresh one with a CAS, so the
+ * only allocation is one bucket per bucket length.
+ * <p>
+ * Windows are aligned to buckets: a window covers the current, partially filled bucket plus as many previous buckets as
+ * needed to span it.
+ */
+public final class SlidingWindowAggregator {
+
+    private final long bucketNanos;
+    private final int buckets;
+    private final Scheduler clock;
+    private final AtomicReferenceArray<Bucket> ring;
+
+    public SlidingWindowAggregator(Duration bucketLength, int buckets) {
+        this(bucketLength, buckets, Schedulers.parallel());
+    }
+
+    /**
+     * @param clock tells the time, and drives {@link #snapshots(Duration, Duration)}. Pass a
+     *              {@code VirtualTimeScheduler} to control time in tests.
+     */
+    public SlidingWindowAggregator(Duration bucketLength, int buckets, Scheduler clock) {
+        if (bucketLength.isZero() || bucketLength.isNegative() || buckets < 2) {
+            throw new IllegalArgumentException("Expected a positive bucket length and at least 2 buckets");
+        }
+        this.bucketNanos = bucketLength.toNanos();
+        this.buckets = buckets;
+        this.clock = clock;
+        this.ring = new AtomicReferenceArray<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            ring.set(i, new Bucket(Long.MIN_VALUE));
+        }
+    }
+
+    public void record(long value) {
+        long epoch = currentEpoch();
+        int index = (int) Math.floorMod(epoch, (long) buckets);
+        Bucket bucket = ring.get(index);
+        while (bucket.epoch != epoch) {
+            if (bucket.epoch > epoch) {
+                // a writer already moved on to the next lap; this reading is too old to matter
+                return;
+            }
+            Bucket fresh = new Bucket(epoch);
+            if (ring.compareAndSet(index, bucket, fresh)) {
+                bucket = fresh;
+            } else {
+                bucket = ring.get(index);
+            }
+        }
+        bucket.add(value);
+    }
+
+    /**
+     * Taps {@code source}, recording every reading it emits.
+     */
+    public Flux<Long> record(Flux<Long> source) {
+        return source.doOnNext(this::record);
+    }
+
+    /**
+     * Aggregates readings over the last {@code window}, rounded up to whole buckets.
+     */
+    public Snapshot query(Duration window) {
+        long span = Math.max(1, (window.toNanos() + bucketNanos - 1) / bucketNanos);
+        if (span > buckets) {
+            throw new IllegalArgumentException("Window " + window + " is longer than the ring of "
+                                                       + Duration.ofNanos(bucketNanos * buckets));
+        }
+        long now = clock.now(TimeUnit.NANOSECONDS);
+        long epoch = Math.floorDiv(now, bucketNanos);
+        long oldest = epoch - span + 1;
+
+        long sum = 0;
+        long count = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (long e = oldest; e <= epoch; e++) {
+            Bucket bucket = ring.get((int) Math.floorMod(e, (long) buckets));
+            if (bucket.epoch != e) {
+                continue;
+            }
+            long bucketCount = bucket.count.sum();
+            if (bucketCount == 0) {
+                continue;
+            }
+            sum += bucket.sum.sum();
+            count += bucketCount;
+            min = Math.min(min, bucket.min.get());
+            max = Math.max(max, bucket.max.get());
+        }
+        long coveredNanos = now - oldest * bucketNanos;
+        return new Snapshot(Duration.ofNanos(coveredNanos), sum, count, min, max);
+    }
+
+    /**
+     * Emits {@link #query(Duration)} of {@code window} every {@code period}, for dashboards.
+     */
+    public Flux<Snapshot> snapshots(Duration period, Duration window) {
+        return Flux.interval(period, clock)
+                   .map(i -> query(window));
+    }
+
+    private long currentEpoch() {
+        return Math.floorDiv(clock.now(TimeUnit.NANOSECONDS), bucketNanos);
+    }
+
+    private static final class Bucket {
+
+        final long epoch;
+        final LongAdder sum = new LongAdder();
+        final LongAdder count = new LongAdder();
+        final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        Bucket(long epoch) {
+            this.epoch = epoch;
+        }
+
+        void add(long value) {
+            sum.add(value);
+            count.increment();
+            long current;
+            while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+                // retry
+            }
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // retry
+            }
+        }
+    }
+
+    public static final class Snapshot {
+
+        private final Duration window;
+        private final long sum;
+        private final long count;
+        private final long min;
+        private final long max;
+
+        Snapshot(Duration window, long sum, long count, long min, long max) {
+            this.window = window;
+            this.sum = sum;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Time actually covered by this snapshot, from the start of its oldest bucket until it was taken.
+         */
+        public Duration getWindow() {
+            return window;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Smallest reading in the window, or {@code Long.MAX_VALUE} if there was none.
+         */
+        public long getMin() {
+            return min;
+        }
+
+        /**
+         * Largest reading in the window, or {@code Long.MIN_VALUE} if there was none.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Readings per second.
+         */
+        public double getRate() {
+            return window.isZero() ? 0 : count * 1_000_000_000d / window.toNanos();
+        }
+
+        /**
+         * Sum of readings per second.
+         */
+        public double getSumRate() {
+            return window.isZero() ? 0 : sum * 1_000_000_000d / window.toNanos();
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot[window=" + window + ", sum=" + sum + ", count=" + count
+                    + ", min=" + (count == 0 ? "-" : min) + ", max=" + (count == 0 ? "-" : max) + "]";
+        }
+    }
+}
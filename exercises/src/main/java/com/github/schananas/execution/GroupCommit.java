@@ -0,0 +1,94 @@
+package com.github.schananas.execution;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Commits elements in groups, one commit at a time: everything that arrives while a commit is in flight goes into the
+ * next one. Under light load every element is committed alone with no added latency; under heavy load groups grow and
+ * the cost of a commit is shared, without any timer or fixed batch size.
+ * <p>
+ * Every element gets a trigger in a {@code concatMap}. A trigger takes all elements queued so far into one commit, so
+ * the triggers of elements already taken by an earlier commit find the queue empty and complete right away.
+ */
+public final class GroupCommit<T> {
+
+    private final Function<List<T>, Mono<Void>> commit;
+    private final int maxGroupSize;
+
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong largestGroup = new AtomicLong();
+    private final Sinks.Many<Integer> groupSizes = Sinks.many().multicast().directBestEffort();
+
+    /**
+     * @param commit       commits a non-empty group, in order
+     * @param maxGroupSize upper bound on elements per commit
+     */
+    public GroupCommit(Function<List<T>, Mono<Void>> commit, int maxGroupSize) {
+        if (maxGroupSize <= 0) {
+            throw new IllegalArgumentException("maxGroupSize must be positive: " + maxGroupSize);
+        }
+        this.commit = commit;
+        this.maxGroupSize = maxGroupSize;
+    }
+
+    /**
+     * Commits every element of {@code source} and emits it, in source order, once its group has been committed. At most
+     * {@code maxGroupSize} elements are requested ahead of the current commit, which is as many as the next commit can
+     * take.
+     */
+    public Flux<T> apply(Flux<T> source) {
+        return Flux.defer(() -> {
+            Queue<T> queue = new ConcurrentLinkedQueue<>();
+            return source.doOnNext(queue::offer)
+                         .concatMap(trigger -> commitQueued(queue), maxGroupSize);
+        });
+    }
+
+    public long commitCount() {
+        return commits.get();
+    }
+
+    public long committedCount() {
+        return committed.get();
+    }
+
+    public long largestGroup() {
+        return largestGroup.get();
+    }
+
+    /**
+     * Hot stream of group sizes, one per commit. Subscribers that can't keep up miss sizes.
+     */
+    public Flux<Integer> groupSizes() {
+        return groupSizes.asFlux();
+    }
+
+    private Flux<T> commitQueued(Queue<T> queue) {
+        List<T> group = new ArrayList<>();
+        T next;
+        while (group.size() < maxGroupSize && (next = queue.poll()) != null) {
+            group.add(next);
+        }
+        if (group.isEmpty()) {
+            return Flux.empty();
+        }
+        return commit.apply(group)
+                     .doOnSuccess(v -> {
+                         commits.incrementAndGet();
+                         committed.addAndGet(group.size());
+                         largestGroup.accumulateAndGet(group.size(), Math::max);
+                         groupSizes.tryEmitNext(group.size());
+                     })
+                     .thenMany(Flux.fromIterable(group));
+    }
+}
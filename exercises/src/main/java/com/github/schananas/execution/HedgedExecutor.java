@@ -0,0 +1,253 @@
+package com.github.schananas.execution;
+
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks with a hedge: when a task hasn't produced its result after the 95th percentile of recent task latencies,
+ * the same task is subscribed a second time, and whichever attempt succeeds first wins while the other one is
+ * cancelled. Tasks have to be cold, so that subscribing again runs them again.
+ * <p>
+ * Hedges go out for roughly the slowest 5% of tasks, so they cut tail latency for a few percent of extra load, and
+ * {@code maxHedgeRatio} caps that extra load when every task is slow, e.g. when the callee is overloaded and hedging
+ * would only make it worse. Until 20 latencies are known, {@code initialHedgeDelay} is used instead of the
+ * percentile.
+ * <p>
+ * Every task, hedge included, has to finish before the deadline, or it fails with a {@link TimeoutException}. A hedge
+ * that couldn't start before the deadline isn't started.
+ */
+public final class HedgedExecutor {
+
+    private static final double HEDGE_PERCENTILE = 0.95;
+    private static final int MIN_SAMPLES = 20;
+    private static final int LATENCY_WINDOW = 128;
+    private static final int RECOMPUTE_EVERY = 8;
+
+    private final long deadlineNanos;
+    private final double maxHedgeRatio;
+    private final Scheduler scheduler;
+
+    // recent task latencies, from the primary attempt's start to the first success, guarded by this
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private long samples;
+    private volatile long hedgeDelayNanos;
+
+    private final AtomicLong tasks = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong deadlineMisses = new AtomicLong();
+
+    public HedgedExecutor(Duration initialHedgeDelay, Duration deadline) {
+        this(initialHedgeDelay, deadline, 0.1, Schedulers.parallel());
+    }
+
+    /**
+     * @param deadline      how long a task, or all tasks of {@link #execute(Flux, int)}, may take in total
+     * @param maxHedgeRatio hedges allowed per task executed, e.g. {@code 0.1} for at most 10% extra attempts
+     * @param scheduler     runs the hedge timers and deadlines
+     */
+    public HedgedExecutor(Duration initialHedgeDelay, Duration deadline, double maxHedgeRatio, Scheduler scheduler) {
+        if (initialHedgeDelay.isNegative() || deadline.isNegative() || deadline.isZero() || maxHedgeRatio < 0) {
+            throw new IllegalArgumentException("Expected a non-negative hedge delay and ratio and a positive deadline");
+        }
+        this.hedgeDelayNanos = initialHedgeDelay.toNanos();
+        this.deadlineNanos = deadline.toNanos();
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Runs {@code task}, hedged, within the deadline.
+     */
+    public <T> Mono<T> execute(Mono<T> task) {
+        return Mono.defer(() -> execute(task, now() + deadlineNanos));
+    }
+
+    /**
+     * Runs up to {@code concurrency} tasks at a time, each hedged, and emits results as they complete. All of them have
+     * to complete within one deadline, counted from subscription; the first task to miss it fails the {@code Flux}.
+     */
+    public <T> Flux<T> execute(Flux<Mono<T>> tasks, int concurrency) {
+        return Flux.defer(() -> {
+            long deadlineAt = now() + deadlineNanos;
+            return tasks.flatMap(task -> execute(task, deadlineAt), concurrency);
+        });
+    }
+
+    /**
+     * Current hedge delay: the 95th percentile of recent latencies, or the initial delay while there are few.
+     */
+    public Duration hedgeDelay() {
+        return Duration.ofNanos(hedgeDelayNanos);
+    }
+
+    public long taskCount() {
+        return tasks.get();
+    }
+
+    /**
+     * Hedges started so far.
+     */
+    public long hedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+     * Hedges that finished before the task they hedged, i.e. cut the latency.
+     */
+    public long hedgeWinCount() {
+        return hedgeWins.get();
+    }
+
+    public long deadlineMissCount() {
+        return deadlineMisses.get();
+    }
+
+    private <T> Mono<T> execute(Mono<T> task, long deadlineAt) {
+        tasks.incrementAndGet();
+        long remaining = deadlineAt - now();
+        if (remaining <= 0) {
+            deadlineMisses.incrementAndGet();
+            return Mono.error(new TimeoutException("Deadline passed before the task started"));
+        }
+        return Mono.<T>create(sink -> new Race<>(task, sink, remaining).start())
+                   .timeout(Duration.ofNanos(remaining),
+                            Mono.defer(() -> {
+                                deadlineMisses.incrementAndGet();
+                                return Mono.error(new TimeoutException("Task missed its deadline of "
+                                                                               + Duration.ofNanos(deadlineNanos)));
+                            }),
+                            scheduler);
+    }
+
+    private boolean allowHedge() {
+        for (; ; ) {
+            long current = hedges.get();
+            if (current + 1 > maxHedgeRatio * tasks.get()) {
+                return false;
+            }
+            if (hedges.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencies[(int) (samples % LATENCY_WINDOW)] = nanos;
+        samples++;
+        if (samples >= MIN_SAMPLES && samples % RECOMPUTE_EVERY == 0) {
+            long[] window = Arrays.copyOf(latencies, (int) Math.min(samples, LATENCY_WINDOW));
+            Arrays.sort(window);
+            hedgeDelayNanos = window[(int) Math.ceil(HEDGE_PERCENTILE * window.length) - 1];
+        }
+    }
+
+    private long now() {
+        return scheduler.now(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The primary attempt and, once the hedge delay passed, the hedge. The first success wins; an error only counts
+     * if no other attempt is running, a hedge is not a retry.
+     */
+    private final class Race<T> {
+
+        private final Mono<T> task;
+        private final MonoSink<T> sink;
+        private final long remainingNanos;
+        private final Disposable.Composite attempts = Disposables.composite();
+
+        // guarded by this
+        private long start;
+        private boolean done;
+        private int running;
+
+        Race(Mono<T> task, MonoSink<T> sink, long remainingNanos) {
+            this.task = task;
+            this.sink = sink;
+            this.remainingNanos = remainingNanos;
+        }
+
+        void start() {
+            sink.onDispose(attempts);
+            long delay = hedgeDelayNanos;
+            synchronized (this) {
+                start = now();
+                running = 1;
+            }
+            attempts.add(attempt(false));
+            if (delay < remainingNanos) {
+                try {
+                    attempts.add(scheduler.schedule(this::startHedge, delay, TimeUnit.NANOSECONDS));
+                } catch (RejectedExecutionException e) {
+                    // no hedge then, the primary attempt still runs
+                }
+            }
+        }
+
+        private void startHedge() {
+            synchronized (this) {
+                if (done || !allowHedge()) {
+                    return;
+                }
+                running++;
+            }
+            attempts.add(attempt(true));
+        }
+
+        private Disposable attempt(boolean hedge) {
+            return task.subscribe(value -> succeed(value, hedge),
+                                  this::fail,
+                                  () -> succeed(null, hedge));
+        }
+
+        private void succeed(T value, boolean hedge) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+            }
+            // the whole task, timed from the primary: a winning hedge's own time would hide the slow primary and pull
+            // the percentile down, hedging more and more
+            recordLatency(now() - start);
+            if (hedge) {
+                hedgeWins.incrementAndGet();
+            }
+            attempts.dispose();
+            if (value == null) {
+                sink.success();
+            } else {
+                sink.success(value);
+            }
+        }
+
+        private void fail(Throwable error) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                running--;
+                if (running > 0) {
+                    // the other attempt may still succeed
+                    return;
+                }
+                done = true;
+            }
+            attempts.dispose();
+            sink.error(error);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.schananas.execution;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import reactor.core.Exceptions;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Serializes values of one type to JSON with a single {@link ObjectWriter} built up front, instead of a new
+ * {@code ObjectMapper} per value. {@code ObjectWriter} is immutable and thread-safe, so one codec can be shared by all
+ * rails. Each thread writes into its own reused character buffer, so the only allocation per value is the resulting
+ * {@code String}.
+ */
+public final class JsonCodec<T> {
+
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private final ObjectWriter writer;
+    private final ThreadLocal<StringBuilderWriter> buffers = ThreadLocal.withInitial(StringBuilderWriter::new);
+
+    public JsonCodec(Class<T> type) {
+        this(new ObjectMapper(), type);
+    }
+
+    public JsonCodec(ObjectMapper mapper, Class<T> type) {
+        this.writer = mapper.writerFor(type)
+                            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    public String encode(T value) {
+        StringBuilderWriter buffer = buffers.get();
+        buffer.reset();
+        try {
+            writer.writeValue(buffer, value);
+        } catch (JsonProcessingException e) {
+            throw Exceptions.propagate(e);
+        } catch (IOException e) {
+            // a StringBuilder can't fail to write
+            throw new IllegalStateException(e);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * {@link Writer} over a {@link StringBuilder} that can be reset, unlike {@code StringWriter} it isn't synchronized.
+     */
+    private static final class StringBuilderWriter extends Writer {
+
+        private StringBuilder builder = new StringBuilder(256);
+
+        void reset() {
+            if (builder.capacity() > MAX_RETAINED_BUFFER) {
+                builder = new StringBuilder(256);
+            } else {
+                builder.setLength(0);
+            }
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            builder.append(chars, offset, length);
+        }
+
+        @Override
+        public void write(String str, int offset, int length) {
+            builder.append(str, offset, offset + length);
+        }
+
+        @Override
+        public void write(int c) {
+            builder.append((char) c);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.github.schananas.execution;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.ParallelFlux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A fixed set of single-threaded workers, with every key hashed onto one of them, so all work for a key runs on the
+ * same thread. Per-key state then has a single writer and needs no lock, and stays in that core's cache.
+ * <p>
+ * There are three ways in:
+ * <ul>
+ *     <li>{@link #partition(Flux, Function, int)} splits a stream into one rail per worker by key, for
+ *     {@code ParallelFlux} stages that should run next to their key's state;</li>
+ *     <li>{@link #forKey(Object)} is the worker of one key, for {@code publishOn} after a {@code groupBy};</li>
+ *     <li>used as a plain {@link Scheduler}, e.g. in {@code runOn}, workers are handed out round-robin. That balances
+ *     the threads but knows nothing about keys.</li>
+ * </ul>
+ * Hashing keeps keys on their worker but can't keep the workers even: a hot key loads one worker only. {@link #load()}
+ * shows how the work is spread, so such a key can be spotted.
+ */
+public final class KeyAffinityScheduler implements Scheduler {
+
+    private final Slot[] slots;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private KeyAffinityScheduler(Slot[] slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * Starts {@code workers} single-threaded workers. Their threads are daemons, so a scheduler that is never disposed
+     * doesn't keep the JVM alive.
+     */
+    public static KeyAffinityScheduler create(String name, int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Expected at least one worker");
+        }
+        Slot[] slots = new Slot[workers];
+        for (int i = 0; i < workers; i++) {
+            slots[i] = new Slot(i, Schedulers.newSingle(name + "-" + i, true));
+        }
+        return new KeyAffinityScheduler(slots);
+    }
+
+    public int size() {
+        return slots.length;
+    }
+
+    /**
+     * Index of the worker {@code key} is pinned to.
+     */
+    public int indexOf(Object key) {
+        int h = key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), slots.length);
+    }
+
+    /**
+     * The single-threaded worker {@code key} is pinned to.
+     */
+    public Scheduler forKey(Object key) {
+        return slots[indexOf(key)];
+    }
+
+    /**
+     * Splits {@code source} into one rail per worker, each carrying only the keys pinned to that worker and running its
+     * stages on it. Items of one key stay in order. Each item's key is hashed once, and the item goes to its rail only.
+     * The rails share one upstream subscription, requesting {@code prefetch} at a time, so a rail that falls behind
+     * holds back all of them, like any {@code ParallelFlux}. Every subscription subscribes to {@code source} anew, so
+     * the result can be retried or repeated.
+     */
+    public <T> ParallelFlux<T> partition(Flux<T> source, Function<? super T, ?> keyOf, int prefetch) {
+        if (prefetch <= 0) {
+            throw new IllegalArgumentException("Expected prefetch > 0, got " + prefetch);
+        }
+        return new KeyedRails<>(source, keyOf, this, prefetch);
+    }
+
+    Scheduler slot(int index) {
+        return slots[index];
+    }
+
+    /**
+     * Tasks submitted, completed and pending, and time spent running them, per worker.
+     */
+    public List<WorkerLoad> load() {
+        List<WorkerLoad> load = new ArrayList<>(slots.length);
+        for (Slot slot : slots) {
+            load.add(slot.load());
+        }
+        return load;
+    }
+
+    @Override
+    public Disposable schedule(Runnable task) {
+        return nextSlot().schedule(task);
+    }
+
+    @Override
+    public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+        return nextSlot().schedule(task, delay, unit);
+    }
+
+    @Override
+    public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return nextSlot().schedulePeriodically(task, initialDelay, period, unit);
+    }
+
+    @Override
+    public Worker createWorker() {
+        return nextSlot().createWorker();
+    }
+
+    @Override
+    public void init() {
+        for (Slot slot : slots) {
+            slot.init();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        for (Slot slot : slots) {
+            slot.dispose();
+        }
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return slots[0].isDisposed();
+    }
+
+    private Slot nextSlot() {
+        return slots[Math.floorMod(next.getAndIncrement(), slots.length)];
+    }
+
+    /**
+     * One single-threaded scheduler, counting the tasks that go through it and its workers.
+     */
+    private static final class Slot implements Scheduler {
+
+        private final int index;
+        private final Scheduler delegate;
+        private final LongAdder submitted = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder pending = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+
+        Slot(int index, Scheduler delegate) {
+            this.index = index;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Disposable schedule(Runnable task) {
+            Counted counted = new Counted(task, true);
+            return counted.submit(() -> delegate.schedule(counted));
+        }
+
+        @Override
+        public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+            Counted counted = new Counted(task, true);
+            return counted.submit(() -> delegate.schedule(counted, delay, unit));
+        }
+
+        @Override
+        public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+            Counted counted = new Counted(task, false);
+            return counted.submit(() -> delegate.schedulePeriodically(counted, initialDelay, period, unit));
+        }
+
+        @Override
+        public long now(TimeUnit unit) {
+            return delegate.now(unit);
+        }
+
+        @Override
+        public Worker createWorker() {
+            return new SlotWorker(delegate.createWorker());
+        }
+
+        @Override
+        public void init() {
+            delegate.init();
+        }
+
+        @Override
+        public void dispose() {
+            delegate.dispose();
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return delegate.isDisposed();
+        }
+
+        WorkerLoad load() {
+            return new WorkerLoad(index, submitted.sum(), completed.sum(), pending.sum(), busyNanos.sum());
+        }
+
+        private final class SlotWorker implements Worker {
+
+            private final Worker worker;
+
+            SlotWorker(Worker worker) {
+                this.worker = worker;
+            }
+
+            @Override
+            public Disposable schedule(Runnable task) {
+                Counted counted = new Counted(task, true);
+                return counted.submit(() -> worker.schedule(counted));
+            }
+
+            @Override
+            public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+                Counted counted = new Counted(task, true);
+                return counted.submit(() -> worker.schedule(counted, delay, unit));
+            }
+
+            @Override
+            public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+                Counted counted = new Counted(task, false);
+                return counted.submit(() -> worker.schedulePeriodically(counted, initialDelay, period, unit));
+            }
+
+            @Override
+            public void dispose() {
+                worker.dispose();
+            }
+
+            @Override
+            public boolean isDisposed() {
+                return worker.isDisposed();
+            }
+        }
+
+        /**
+         * A task that counts as pending until it starts or is disposed, and adds its run time to the slot.
+         */
+        private final class Counted implements Runnable {
+
+            private final Runnable task;
+            private final boolean oneShot;
+            private final AtomicBoolean settled = new AtomicBoolean();
+
+            Counted(Runnable task, boolean oneShot) {
+                this.task = task;
+                this.oneShot = oneShot;
+                submitted.increment();
+                if (oneShot) {
+                    pending.increment();
+                }
+            }
+
+            @Override
+            public void run() {
+                settle();
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    busyNanos.add(System.nanoTime() - start);
+                    completed.increment();
+                }
+            }
+
+            Disposable submit(Supplier<Disposable> scheduling) {
+                Disposable scheduled;
+                try {
+                    scheduled = scheduling.get();
+                } catch (RejectedExecutionException e) {
+                    settle();
+                    throw e;
+                }
+                return new Disposable() {
+                    @Override
+                    public void dispose() {
+                        settle();
+                        scheduled.dispose();
+                    }
+
+                    @Override
+                    public boolean isDisposed() {
+                        return scheduled.isDisposed();
+                    }
+                };
+            }
+
+            private void settle() {
+                if (oneShot && settled.compareAndSet(false, true)) {
+                    pending.decrement();
+                }
+            }
+        }
+    }
+
+    public static final class WorkerLoad {
+
+        private final int worker;
+        private final long submitted;
+        private final long completed;
+        private final long pending;
+        private final long busyNanos;
+
+        WorkerLoad(int worker, long submitted, long completed, long pending, long busyNanos) {
+            this.worker = worker;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.pending = pending;
+            this.busyNanos = busyNanos;
+        }
+
+        public int getWorker() {
+            return worker;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        /**
+         * Task runs that ended, periodic tasks counting once per run.
+         */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * One-shot tasks waiting to start.
+         */
+        public long getPending() {
+            return pending;
+        }
+
+        /**
+         * Nanoseconds the worker spent running tasks.
+         */
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "WorkerLoad[" + worker + ", submitted=" + submitted + ", completed=" + completed
+                    + ", pending=" + pending + ", busy=" + TimeUnit.NANOSECONDS.toMillis(busyNanos) + "ms]";
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.github.schananas.execution;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+import reactor.core.publisher.ParallelFlux;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.concurrent.Queues;
+import reactor.util.context.Context;
+
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The rails of {@link KeyAffinityScheduler#partition(Flux, Function, int)}: one per worker, each delivered on its worker.
+ * <p>
+ * Every subscription subscribes to the source once. Each element's key is hashed once, and the element is queued on the
+ * rail of that worker, which drains its queue on the worker thread as its subscriber requests. At most
+ * {@code prefetch} elements are requested ahead of the rails, replenished by three quarters as they are delivered, so
+ * a rail that falls behind holds back all of them. Errors reach every rail right away; completion after each rail
+ * delivered what it holds.
+ */
+final class KeyedRails<T> extends ParallelFlux<T> {
+
+    private final Flux<T> source;
+    private final Function<? super T, ?> keyOf;
+    private final KeyAffinityScheduler scheduler;
+    private final int prefetch;
+
+    KeyedRails(Flux<T> source, Function<? super T, ?> keyOf, KeyAffinityScheduler scheduler, int prefetch) {
+        this.source = source;
+        this.keyOf = keyOf;
+        this.scheduler = scheduler;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public int parallelism() {
+        return scheduler.size();
+    }
+
+    @Override
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    @Override
+    public void subscribe(CoreSubscriber<? super T>[] subscribers) {
+        if (!validate(subscribers)) {
+            return;
+        }
+        source.subscribe(new Dispatcher<>(subscribers, keyOf, scheduler, prefetch));
+    }
+
+    /**
+     * Routes upstream elements onto the rails, and requests more from upstream as the rails deliver.
+     */
+    private static final class Dispatcher<T> implements CoreSubscriber<T> {
+
+        private final Rail<T>[] rails;
+        private final Function<? super T, ?> keyOf;
+        private final KeyAffinityScheduler scheduler;
+        private final int prefetch;
+        private final int limit;
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong toRequest = new AtomicLong();
+        private final AtomicInteger requesting = new AtomicInteger();
+        private final AtomicInteger activeRails;
+
+        private Subscription upstream;
+        private volatile boolean done;
+        private volatile Throwable error;
+        private volatile boolean cancelled;
+
+        Dispatcher(CoreSubscriber<? super T>[] subscribers,
+                   Function<? super T, ?> keyOf,
+                   KeyAffinityScheduler scheduler,
+                   int prefetch) {
+            this.keyOf = keyOf;
+            this.scheduler = scheduler;
+            this.prefetch = prefetch;
+            this.limit = prefetch - (prefetch >> 2);
+            @SuppressWarnings({"rawtypes", "unchecked"})
+            Rail<T>[] rails = new Rail[subscribers.length];
+            for (int i = 0; i < subscribers.length; i++) {
+                rails[i] = new Rail<>(this, subscribers[i], scheduler.slot(i).createWorker(), prefetch);
+            }
+            this.rails = rails;
+            this.activeRails = new AtomicInteger(subscribers.length);
+        }
+
+        @Override
+        public Context currentContext() {
+            return rails[0].actual.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            if (Operators.validate(upstream, s)) {
+                upstream = s;
+                for (Rail<T> rail : rails) {
+                    rail.actual.onSubscribe(rail);
+                }
+                s.request(prefetch);
+            }
+        }
+
+        @Override
+        public void onNext(T t) {
+            if (done) {
+                Operators.onNextDropped(t, currentContext());
+                return;
+            }
+            Rail<T> rail;
+            try {
+                rail = rails[scheduler.indexOf(keyOf.apply(t))];
+            } catch (Throwable e) {
+                upstream.cancel();
+                onError(Operators.onOperatorError(upstream, e, t, currentContext()));
+                return;
+            }
+            if (rail.cancelled) {
+                Operators.onDiscard(t, currentContext());
+                delivered(1);
+                return;
+            }
+            if (!rail.queue.offer(t)) {
+                upstream.cancel();
+                onError(Operators.onOperatorError(upstream,
+                                                  Exceptions.failWithOverflow(Exceptions.BACKPRESSURE_ERROR_QUEUE_FULL),
+                                                  t,
+                                                  currentContext()));
+                return;
+            }
+            rail.schedule();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (done) {
+                Operators.onErrorDropped(t, currentContext());
+                return;
+            }
+            error = t;
+            done = true;
+            for (Rail<T> rail : rails) {
+                rail.schedule();
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (done) {
+                return;
+            }
+            done = true;
+            for (Rail<T> rail : rails) {
+                rail.schedule();
+            }
+        }
+
+        /**
+         * Counts elements that left the rails, and requests a batch from upstream every {@code limit} of them. Rails
+         * call it from their own workers, so requests are serialized here.
+         */
+        void delivered(long n) {
+            long before = delivered.getAndAdd(n);
+            long batches = (before + n) / limit - before / limit;
+            if (batches == 0 || done || cancelled) {
+                return;
+            }
+            toRequest.accumulateAndGet(batches * limit, Operators::addCap);
+            if (requesting.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (; ; ) {
+                long r = toRequest.getAndSet(0);
+                if (r != 0) {
+                    upstream.request(r);
+                }
+                missed = requesting.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Called once by every rail that terminated or was cancelled. Upstream is cancelled once no rail wants more.
+         */
+        void railFinished(boolean cancelled) {
+            if (activeRails.decrementAndGet() != 0) {
+                return;
+            }
+            if (cancelled && !done) {
+                this.cancelled = true;
+                upstream.cancel();
+            }
+        }
+    }
+
+    /**
+     * One rail: its queue, its subscriber's demand, and the worker that drains it.
+     */
+    private static final class Rail<T> implements Subscription, Runnable {
+
+        private final Dispatcher<T> parent;
+        private final CoreSubscriber<? super T> actual;
+        private final Scheduler.Worker worker;
+        private final Queue<T> queue;
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile boolean cancelled;
+
+        Rail(Dispatcher<T> parent, CoreSubscriber<? super T> actual, Scheduler.Worker worker, int prefetch) {
+            this.parent = parent;
+            this.actual = actual;
+            this.worker = worker;
+            this.queue = Queues.<T>get(prefetch).get();
+        }
+
+        @Override
+        public void request(long n) {
+            if (Operators.validate(n)) {
+                requested.accumulateAndGet(n, Operators::addCap);
+                schedule();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                // counted right away rather than on the worker, which may be stuck in a request to upstream
+                if (finished.compareAndSet(false, true)) {
+                    parent.railFinished(true);
+                }
+                schedule();
+            }
+        }
+
+        void schedule() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            try {
+                worker.schedule(this);
+            } catch (RejectedExecutionException e) {
+                // the worker is only released once this rail finished, nothing is left to deliver
+                if (!finished.get() && !cancelled) {
+                    actual.onError(Operators.onRejectedExecution(e, actual.currentContext()));
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            for (; ; ) {
+                if (cancelled) {
+                    drop();
+                    worker.dispose();
+                } else if (!finished.get()) {
+                    drain();
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        private void drain() {
+            long r = requested.get();
+            long e = 0;
+            while (e != r) {
+                if (cancelled) {
+                    break;
+                }
+                boolean d = parent.done;
+                if (d && parent.error != null) {
+                    terminate();
+                    return;
+                }
+                T t = queue.poll();
+                if (t == null) {
+                    if (d) {
+                        terminate();
+                        return;
+                    }
+                    break;
+                }
+                actual.onNext(t);
+                e++;
+            }
+            if (!cancelled && parent.done && (parent.error != null || queue.isEmpty())) {
+                terminate();
+            }
+            if (e != 0) {
+                if (r != Long.MAX_VALUE) {
+                    requested.addAndGet(-e);
+                }
+                parent.delivered(e);
+            }
+        }
+
+        private void terminate() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            Throwable error = parent.error;
+            if (error != null) {
+                drop();
+                actual.onError(error);
+            } else {
+                actual.onComplete();
+            }
+            worker.dispose();
+            parent.railFinished(false);
+        }
+
+        private void drop() {
+            long dropped = 0;
+            T t;
+            while ((t = queue.poll()) != null) {
+                Operators.onDiscard(t, actual.currentContext());
+                dropped++;
+            }
+            if (dropped != 0) {
+                parent.delivered(dropped);
+            }
+        }
+    }
+}
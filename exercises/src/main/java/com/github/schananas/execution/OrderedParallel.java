@@ -0,0 +1,65 @@
+package com.github.schananas.execution;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.Comparator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Parallel stages whose output keeps the order of their input.
+ * <p>
+ * Elements are tagged with their position, spread round-robin over {@code rails} rails running on {@code scheduler},
+ * and merged back with {@code ParallelFlux#ordered}. Every rail sees increasing positions and handles them one at a
+ * time, so each rail's output is already sorted and the merge only has to pick the smallest head among the rails. A
+ * rail that falls behind holds back the output, but never more than {@code prefetch} elements per rail.
+ */
+public final class OrderedParallel {
+
+    private OrderedParallel() {
+    }
+
+    public static <T, R> Flux<R> map(Flux<T> source,
+                                     Function<? super T, ? extends R> mapper,
+                                     int rails,
+                                     int prefetch,
+                                     Scheduler scheduler) {
+        return filterMap(source, t -> true, mapper, rails, prefetch, scheduler);
+    }
+
+    /**
+     * Drops the elements not matching {@code filter} and maps the rest, both on the rails.
+     */
+    public static <T, R> Flux<R> filterMap(Flux<T> source,
+                                           Predicate<? super T> filter,
+                                           Function<? super T, ? extends R> mapper,
+                                           int rails,
+                                           int prefetch,
+                                           Scheduler scheduler) {
+        return source.index()
+                     .parallel(rails, prefetch)
+                     .runOn(scheduler, prefetch)
+                     .filter(indexed -> filter.test(indexed.getT2()))
+                     .map(indexed -> new Sequenced<R>(indexed.getT1(), mapper.apply(indexed.getT2())))
+                     .ordered(Sequenced.BY_POSITION, prefetch)
+                     .map(Sequenced::value);
+    }
+
+    private static final class Sequenced<R> {
+
+        static final Comparator<Sequenced<?>> BY_POSITION = Comparator.comparingLong(s -> s.position);
+
+        final long position;
+        final R value;
+
+        Sequenced(long position, R value) {
+            this.position = position;
+            this.value = value;
+        }
+
+        R value() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.github.schananas.execution;
+
+import com.github.schananas.batching.SlidingWindowAggregator;
+import reactor.core.Disposable;
+import reactor.core.Scannable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in instrumentation of every Reactor {@link Scheduler}: how many tasks are pending and running, how long they
+ * waited to start and how long they ran, and how many were rejected.
+ * <p>
+ * It's an executor service decorator, see {@link Schedulers#addExecutorServiceDecorator}, so it sees every task of the
+ * executors schedulers create after {@link #install()}, knows which scheduler each belongs to, and sees a full queue
+ * rejecting a task. Schedulers that already created their executors, e.g. {@code Schedulers.parallel()} once used,
+ * aren't instrumented, so install it at startup.
+ * <p>
+ * Counters are {@link LongAdder}s and timings go into {@link SlidingWindowAggregator}s, which keeps the per-task cost
+ * to a couple of allocations and uncontended atomic updates, low enough to leave on.
+ */
+public final class SchedulerMetrics implements Disposable {
+
+    private static final String DECORATOR_KEY = "scheduler-metrics";
+    private static final Duration BUCKET = Duration.ofSeconds(1);
+    private static final int BUCKETS = 61;
+
+    private final Map<Scheduler, Stats> schedulers = new ConcurrentHashMap<>();
+    private volatile boolean disposed;
+
+    private SchedulerMetrics() {
+    }
+
+    /**
+     * Starts instrumenting schedulers created from now on. Only one instance can be installed at a time.
+     */
+    public static SchedulerMetrics install() {
+        SchedulerMetrics metrics = new SchedulerMetrics();
+        if (!Schedulers.addExecutorServiceDecorator(DECORATOR_KEY, metrics::decorate)) {
+            throw new IllegalStateException("SchedulerMetrics is already installed");
+        }
+        return metrics;
+    }
+
+    /**
+     * Metrics of every instrumented scheduler that is still alive, with timings over the last {@code window}, up to a
+     * minute.
+     */
+    public List<Snapshot> snapshot(Duration window) {
+        List<Snapshot> result = new ArrayList<>(schedulers.size());
+        schedulers.forEach((scheduler, stats) -> {
+            if (scheduler.isDisposed()) {
+                schedulers.remove(scheduler, stats);
+            } else {
+                result.add(stats.snapshot(window));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Emits one {@link Snapshot} per scheduler every {@code period}, with timings over that period.
+     */
+    public Flux<Snapshot> snapshots(Duration period) {
+        return Flux.interval(period)
+                   .concatMapIterable(tick -> snapshot(period));
+    }
+
+    /**
+     * Stops instrumenting new executors. Executors already instrumented keep reporting.
+     */
+    @Override
+    public void dispose() {
+        if (!disposed) {
+            disposed = true;
+            Schedulers.removeExecutorServiceDecorator(DECORATOR_KEY);
+        }
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    private ScheduledExecutorService decorate(Scheduler scheduler, ScheduledExecutorService executor) {
+        Stats stats = schedulers.computeIfAbsent(scheduler, s -> new Stats(nameOf(s)));
+        return new InstrumentedExecutorService(executor, stats);
+    }
+
+    private static String nameOf(Scheduler scheduler) {
+        String name = Scannable.from(scheduler).scan(Scannable.Attr.NAME);
+        return name != null ? name : scheduler.toString();
+    }
+
+    /**
+     * Live counters of one scheduler, shared by all its executors.
+     */
+    static final class Stats {
+
+        private final String name;
+        private final LongAdder pending = new LongAdder();
+        private final LongAdder active = new LongAdder();
+        private final LongAdder submitted = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder cancelled = new LongAdder();
+        // the clock only tells the time, immediate() doesn't create executors, which would call back into decorate
+        private final SlidingWindowAggregator queueWait =
+                new SlidingWindowAggregator(BUCKET, BUCKETS, Schedulers.immediate());
+        private final SlidingWindowAggregator runTime =
+                new SlidingWindowAggregator(BUCKET, BUCKETS, Schedulers.immediate());
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        void submitted(boolean oneShot) {
+            submitted.increment();
+            if (oneShot) {
+                pending.increment();
+            }
+        }
+
+        void started(boolean oneShot, long waitNanos) {
+            if (oneShot) {
+                pending.decrement();
+            }
+            active.increment();
+            queueWait.record(waitNanos);
+        }
+
+        void finished(long runNanos, boolean failedRun) {
+            active.decrement();
+            (failedRun ? failed : completed).increment();
+            runTime.record(runNanos);
+        }
+
+        void rejected(boolean oneShot) {
+            rejected.increment();
+            if (oneShot) {
+                pending.decrement();
+            }
+        }
+
+        void cancelled() {
+            cancelled.increment();
+            pending.decrement();
+        }
+
+        Snapshot snapshot(Duration window) {
+            return new Snapshot(name,
+                                pending.sum(),
+                                active.sum(),
+                                submitted.sum(),
+                                completed.sum(),
+                                failed.sum(),
+                                rejected.sum(),
+                                cancelled.sum(),
+                                queueWait.query(window),
+                                runTime.query(window));
+        }
+    }
+
+    public static final class Snapshot {
+
+        private final String scheduler;
+        private final long pending;
+        private final long active;
+        private final long submitted;
+        private final long completed;
+        private final long failed;
+        private final long rejected;
+        private final long cancelled;
+        private final SlidingWindowAggregator.Snapshot queueWait;
+        private final SlidingWindowAggregator.Snapshot runTime;
+
+        Snapshot(String scheduler,
+                 long pending,
+                 long active,
+                 long submitted,
+                 long completed,
+                 long failed,
+                 long rejected,
+                 long cancelled,
+                 SlidingWindowAggregator.Snapshot queueWait,
+                 SlidingWindowAggregator.Snapshot runTime) {
+            this.scheduler = scheduler;
+            this.pending = pending;
+            this.active = active;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.failed = failed;
+            this.rejected = rejected;
+            this.cancelled = cancelled;
+            this.queueWait = queueWait;
+            this.runTime = runTime;
+        }
+
+        public String getScheduler() {
+            return scheduler;
+        }
+
+        /**
+         * One-shot tasks submitted but not started yet, including delayed ones. Periodic tasks aren't counted.
+         */
+        public long getPending() {
+            return pending;
+        }
+
+        /**
+         * Tasks running right now.
+         */
+        public long getActive() {
+            return active;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * Task runs that threw.
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Nanoseconds from when tasks were due until they started, over the snapshot's window.
+         */
+        public SlidingWindowAggregator.Snapshot getQueueWait() {
+            return queueWait;
+        }
+
+        /**
+         * Nanoseconds tasks ran, over the snapshot's window.
+         */
+        public SlidingWindowAggregator.Snapshot getRunTime() {
+            return runTime;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot[" + scheduler + ", pending=" + pending + ", active=" + active + ", submitted=" + submitted
+                    + ", completed=" + completed + ", failed=" + failed + ", rejected=" + rejected
+                    + ", cancelled=" + cancelled + ", queueWait=" + queueWait + ", runTime=" + runTime + "]";
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.github.schananas.execution;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket that refills at {@code rate} tokens per second and holds at most {@code burst} of them, shared by any
+ * number of streams and callers.
+ * <p>
+ * The bucket is kept as the time at which it will be full again, in a single {@link AtomicLong}, and tokens are taken
+ * by moving that time forward with a CAS: no lock, no refill timer and no allocation, cheap enough for every outbound
+ * call.
+ * <p>
+ * With a warmup, the bucket starts empty and refills at a third of {@code rate}, speeding up linearly to the full
+ * {@code rate} over the warmup period, so a cold downstream isn't hit at full speed right after start.
+ */
+public final class TokenBucket {
+
+    private static final double COLD_FACTOR = 3;
+
+    private final long intervalNanos;
+    private final int burst;
+    private final long warmupNanos;
+    private final long warmEnd;
+    private final Scheduler clock;
+
+    // the bucket holds (now + burst * interval - tat) / interval tokens, so it's full once tat <= now
+    private final AtomicLong tat;
+
+    public TokenBucket(double rate, int burst) {
+        this(rate, burst, Duration.ZERO, Schedulers.parallel());
+    }
+
+    /**
+     * @param clock tells the time and delays limited streams. Pass a {@code VirtualTimeScheduler} to control time in
+     *              tests.
+     */
+    public TokenBucket(double rate, int burst, Duration warmup, Scheduler clock) {
+        if (rate <= 0 || burst <= 0 || warmup.isNegative()) {
+            throw new IllegalArgumentException("Expected a positive rate and burst and a non-negative warmup");
+        }
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000d / rate));
+        this.burst = burst;
+        this.warmupNanos = warmup.toNanos();
+        this.clock = clock;
+        long now = now();
+        this.warmEnd = now + warmupNanos;
+        this.tat = new AtomicLong(warmupNanos > 0 ? now + burst * intervalAt(now) : now);
+    }
+
+    /**
+     * Requests from {@code source} only as fast as tokens are available, one token per element. Nothing is buffered:
+     * downstream demand is held back and handed upstream as the bucket refills, so a slow bucket slows the source down
+     * rather than piling up its elements.
+     */
+    public <T> Flux<T> limit(Flux<T> source) {
+        // hidden, so the lifted operator isn't fuseable: the subscriber doesn't implement QueueSubscription
+        return source.hide()
+                     .transform(Operators.<T, T>lift((scannable, actual) ->
+                             new TokenBucketSubscriber<T>(actual, this, clock.createWorker())));
+    }
+
+    /**
+     * Completes once a token is taken. Waiters are served in the order they call {@code acquire}, and the token is
+     * reserved on subscription, so cancelling while waiting doesn't give it back.
+     */
+    public Mono<Void> acquire() {
+        return Mono.defer(() -> {
+            long wait = reserve();
+            return wait <= 0 ? Mono.empty() : Mono.delay(Duration.ofNanos(wait), clock).then();
+        });
+    }
+
+    /**
+     * Takes a token if one is available right now.
+     */
+    public boolean tryAcquire() {
+        return tryAcquireUpTo(1) == 1;
+    }
+
+    /**
+     * Takes as many of the available tokens as possible, up to {@code max}, and returns how many it took.
+     */
+    public long tryAcquireUpTo(long max) {
+        for (; ; ) {
+            long now = now();
+            long current = tat.get();
+            long start = Math.max(current, now);
+            long interval = intervalAt(now);
+            long available = (now + burst * interval - start) / interval;
+            long taken = Math.min(max, available);
+            if (taken <= 0) {
+                return 0;
+            }
+            if (tat.compareAndSet(current, start + taken * interval)) {
+                return taken;
+            }
+        }
+    }
+
+    /**
+     * How long until the next token is available, zero if one is available now.
+     */
+    public long nanosToNextToken() {
+        long now = now();
+        long interval = intervalAt(now);
+        return Math.max(0, Math.max(tat.get(), now) + interval - (now + burst * interval));
+    }
+
+    /**
+     * Tokens available right now.
+     */
+    public long availableTokens() {
+        long now = now();
+        long interval = intervalAt(now);
+        return Math.max(0, (now + burst * interval - Math.max(tat.get(), now)) / interval);
+    }
+
+    public int burst() {
+        return burst;
+    }
+
+    private long reserve() {
+        for (; ; ) {
+            long now = now();
+            long current = tat.get();
+            long start = Math.max(current, now);
+            long interval = intervalAt(now);
+            long next = start + interval;
+            if (tat.compareAndSet(current, next)) {
+                return next - (now + burst * interval);
+            }
+        }
+    }
+
+    private long intervalAt(long now) {
+        long remaining = warmEnd - now;
+        if (remaining <= 0) {
+            return intervalNanos;
+        }
+        return (long) (intervalNanos * (1 + (COLD_FACTOR - 1) * remaining / warmupNanos));
+    }
+
+    private long now() {
+        return clock.now(TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.schananas.execution;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.context.Context;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Passes elements straight through, but forwards downstream demand upstream only as tokens are taken from the bucket.
+ * Demand that couldn't be covered waits in {@code requested} until the worker wakes up for the next token.
+ * <p>
+ * Downstream requests and the worker can both drain; whichever wins {@code wip} takes tokens and requests upstream.
+ */
+final class TokenBucketSubscriber<T> implements CoreSubscriber<T>, Subscription {
+
+    private final CoreSubscriber<? super T> actual;
+    private final TokenBucket bucket;
+    private final Scheduler.Worker worker;
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // downstream demand not yet handed upstream
+    private volatile long requested;
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final AtomicLongFieldUpdater<TokenBucketSubscriber<?>> REQUESTED =
+            (AtomicLongFieldUpdater) AtomicLongFieldUpdater.newUpdater(TokenBucketSubscriber.class, "requested");
+
+    private Subscription upstream;
+    private boolean timerPending;
+    private volatile boolean cancelled;
+    private boolean done;
+
+    TokenBucketSubscriber(CoreSubscriber<? super T> actual, TokenBucket bucket, Scheduler.Worker worker) {
+        this.actual = actual;
+        this.bucket = bucket;
+        this.worker = worker;
+    }
+
+    @Override
+    public Context currentContext() {
+        return actual.currentContext();
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        if (Operators.validate(upstream, s)) {
+            upstream = s;
+            actual.onSubscribe(this);
+        }
+    }
+
+    @Override
+    public void onNext(T t) {
+        if (done) {
+            Operators.onNextDropped(t, currentContext());
+            return;
+        }
+        actual.onNext(t);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (done) {
+            Operators.onErrorDropped(t, currentContext());
+            return;
+        }
+        done = true;
+        worker.dispose();
+        actual.onError(t);
+    }
+
+    @Override
+    public void onComplete() {
+        if (done) {
+            return;
+        }
+        done = true;
+        worker.dispose();
+        actual.onComplete();
+    }
+
+    @Override
+    public void request(long n) {
+        if (Operators.validate(n)) {
+            Operators.addCap(REQUESTED, this, n);
+            drain();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            upstream.cancel();
+            worker.dispose();
+        }
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        for (; ; ) {
+            long r = requested;
+            if (!cancelled && r != 0 && !timerPending) {
+                long granted = bucket.tryAcquireUpTo(r);
+                if (granted > 0) {
+                    if (r != Long.MAX_VALUE) {
+                        REQUESTED.addAndGet(this, -granted);
+                    }
+                    upstream.request(granted);
+                    continue;
+                }
+                scheduleRefill();
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private void scheduleRefill() {
+        timerPending = true;
+        try {
+            worker.schedule(() -> {
+                                timerPending = false;
+                                drain();
+                            },
+                            Math.max(1, bucket.nanosToNextToken()),
+                            TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // the worker was disposed because the stream terminated or was cancelled
+            timerPending = false;
+        }
+    }
+}
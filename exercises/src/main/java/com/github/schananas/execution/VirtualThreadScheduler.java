@@ -0,0 +1,416 @@
+package com.github.schananas.execution;
+
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.Exceptions;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Scheduler} that runs every task on a virtual thread of its own, for blocking calls such as
+ * {@code ExecutionControlBase.blockingCall()}.
+ * <p>
+ * A blocked virtual thread unmounts from its carrier, so blocking costs a parked continuation instead of a platform
+ * thread, and the limit on concurrent blocking calls is {@code maxConcurrency} rather than the thread cap of
+ * {@code boundedElastic()}. Tasks over the limit wait for a permit, parked on their own virtual thread; once
+ * {@code maxPending} tasks wait, further tasks are rejected like they would be by {@code boundedElastic()}.
+ * <p>
+ * Tasks of one {@link Worker} run one after another, in order, as {@code publishOn} and {@code subscribeOn} expect. A
+ * worker holds one permit while it has tasks queued, and none while idle.
+ * <p>
+ * Virtual threads are not {@code NonBlocking}, so {@code publishOn(VirtualThreadScheduler)} is allowed to block under
+ * BlockHound while {@code parallel()} isn't.
+ */
+public final class VirtualThreadScheduler implements Scheduler {
+
+    private static final int DEFAULT_MAX_PENDING = 100_000;
+
+    private final String name;
+    private final ThreadFactory threads;
+    private final int maxConcurrency;
+    private final int maxPending;
+    private final Semaphore permits;
+
+    private final Set<Task> live = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile boolean disposed;
+
+    private VirtualThreadScheduler(String name, int maxConcurrency, int maxPending) {
+        this.name = name;
+        this.threads = Thread.ofVirtual().name(name + "-", 0).factory();
+        this.maxConcurrency = maxConcurrency;
+        this.maxPending = maxPending;
+        this.permits = new Semaphore(maxConcurrency, true);
+    }
+
+    public static VirtualThreadScheduler create(String name, int maxConcurrency) {
+        return create(name, maxConcurrency, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param maxConcurrency tasks allowed to run, and block, at the same time
+     * @param maxPending     tasks allowed to wait for a permit or for their delay before new ones are rejected
+     */
+    public static VirtualThreadScheduler create(String name, int maxConcurrency, int maxPending) {
+        if (maxConcurrency <= 0 || maxPending <= 0) {
+            throw new IllegalArgumentException("Expected a positive maxConcurrency and maxPending");
+        }
+        return new VirtualThreadScheduler(name, maxConcurrency, maxPending);
+    }
+
+    @Override
+    public Disposable schedule(Runnable task) {
+        return spawn(task, 0, -1, true);
+    }
+
+    @Override
+    public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+        return spawn(task, unit.toNanos(delay), -1, true);
+    }
+
+    @Override
+    public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + period);
+        }
+        return spawn(task, unit.toNanos(initialDelay), unit.toNanos(period), true);
+    }
+
+    @Override
+    public Worker createWorker() {
+        return new SerialWorker();
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        for (Task task : live) {
+            task.dispose();
+        }
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    public int maxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Tasks running right now.
+     */
+    public int activeCount() {
+        return active.get();
+    }
+
+    /**
+     * Tasks waiting for a permit or for their delay to pass.
+     */
+    public int pendingCount() {
+        return pending.get();
+    }
+
+    public long completedCount() {
+        return completed.get();
+    }
+
+    public long rejectedCount() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return "VirtualThreadScheduler[" + name + ", maxConcurrency=" + maxConcurrency + "]";
+    }
+
+    /**
+     * Starts a virtual thread that waits {@code delayNanos}, then runs {@code body} once, or every {@code periodNanos}
+     * if that's not negative. Only gated bodies take a permit; worker timers just hand tasks to their worker.
+     */
+    private Disposable spawn(Runnable body, long delayNanos, long periodNanos, boolean gated) {
+        if (disposed) {
+            throw Exceptions.failWithRejected();
+        }
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            rejected.incrementAndGet();
+            throw Exceptions.failWithRejected();
+        }
+        Task task = new Task(body, delayNanos, periodNanos, gated);
+        live.add(task);
+        task.thread = threads.newThread(task);
+        task.thread.start();
+        if (disposed) {
+            task.dispose();
+        }
+        return task;
+    }
+
+    private static void handleError(Throwable e) {
+        Exceptions.throwIfJvmFatal(e);
+        Thread current = Thread.currentThread();
+        current.getUncaughtExceptionHandler().uncaughtException(current, e);
+    }
+
+    private final class Task implements Runnable, Disposable {
+
+        final Runnable body;
+        final long delayNanos;
+        final long periodNanos;
+        final boolean gated;
+        volatile Thread thread;
+        volatile boolean cancelled;
+
+        Task(Runnable body, long delayNanos, long periodNanos, boolean gated) {
+            this.body = body;
+            this.delayNanos = delayNanos;
+            this.periodNanos = periodNanos;
+            this.gated = gated;
+        }
+
+        @Override
+        public void run() {
+            boolean counted = true;
+            try {
+                long deadline = System.nanoTime() + delayNanos;
+                do {
+                    sleepUntil(deadline);
+                    if (gated) {
+                        permits.acquire();
+                    }
+                    if (counted) {
+                        pending.decrementAndGet();
+                        counted = false;
+                    }
+                    try {
+                        runBody();
+                    } finally {
+                        if (gated) {
+                            permits.release();
+                        }
+                    }
+                    deadline += periodNanos;
+                } while (periodNanos >= 0 && !cancelled);
+            } catch (InterruptedException e) {
+                // disposed
+            } finally {
+                if (counted) {
+                    pending.decrementAndGet();
+                }
+                live.remove(this);
+            }
+        }
+
+        private void runBody() {
+            if (cancelled) {
+                return;
+            }
+            active.incrementAndGet();
+            try {
+                body.run();
+            } catch (Throwable e) {
+                handleError(e);
+            } finally {
+                active.decrementAndGet();
+                completed.incrementAndGet();
+            }
+        }
+
+        private void sleepUntil(long deadline) throws InterruptedException {
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            }
+        }
+
+        @Override
+        public void dispose() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            Thread t = thread;
+            if (t != null) {
+                t.interrupt();
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Runs tasks one after another, in submission order, on a virtual thread started whenever the worker goes from idle
+     * to busy. The thread holds a permit while it drains and ends once the queue is empty.
+     */
+    private final class SerialWorker implements Worker {
+
+        private final Queue<WorkerTask> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final Disposable.Composite tasks = Disposables.composite();
+
+        @Override
+        public Disposable schedule(Runnable task) {
+            WorkerTask workerTask = new WorkerTask(task, false);
+            if (!tasks.add(workerTask)) {
+                throw Exceptions.failWithRejected();
+            }
+            enqueue(workerTask);
+            return workerTask;
+        }
+
+        @Override
+        public Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+            return scheduleLater(task, unit.toNanos(delay), -1);
+        }
+
+        @Override
+        public Disposable schedulePeriodically(Runnable task, long initialDelay, long period, TimeUnit unit) {
+            if (period <= 0) {
+                throw new IllegalArgumentException("period must be positive: " + period);
+            }
+            return scheduleLater(task, unit.toNanos(initialDelay), unit.toNanos(period));
+        }
+
+        private Disposable scheduleLater(Runnable task, long delayNanos, long periodNanos) {
+            WorkerTask workerTask = new WorkerTask(task, periodNanos >= 0);
+            if (!tasks.add(workerTask)) {
+                throw Exceptions.failWithRejected();
+            }
+            // the timer thread only hands the task to this worker, so it runs in order with the worker's other tasks
+            workerTask.timer = spawn(() -> enqueue(workerTask), delayNanos, periodNanos, false);
+            return workerTask;
+        }
+
+        private void enqueue(WorkerTask task) {
+            queue.add(task);
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    spawn(this::drain, 0, -1, true);
+                } catch (RuntimeException e) {
+                    wip.set(0);
+                    queue.clear();
+                    throw e;
+                }
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                WorkerTask task;
+                while ((task = queue.poll()) != null) {
+                    task.run();
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        @Override
+        public void dispose() {
+            tasks.dispose();
+            queue.clear();
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return tasks.isDisposed();
+        }
+
+        /**
+         * A task of this worker. {@code dispose()} only interrupts the drain thread after moving the task from
+         * {@code RUNNING} to {@code INTERRUPTING}, and {@code run()} waits for that interrupt to land before clearing it,
+         * so the interrupt can't hit the next task on the same thread.
+         */
+        private final class WorkerTask implements Runnable, Disposable {
+
+            private static final int INITIAL = 0;
+            private static final int RUNNING = 1;
+            private static final int FINISHED = 2;
+            private static final int INTERRUPTING = 3;
+            private static final int CANCELLED = 4;
+
+            final Runnable task;
+            final boolean periodic;
+            final AtomicInteger state = new AtomicInteger(INITIAL);
+            volatile Disposable timer;
+            volatile Thread runner;
+
+            WorkerTask(Runnable task, boolean periodic) {
+                this.task = task;
+                this.periodic = periodic;
+            }
+
+            @Override
+            public void run() {
+                runner = Thread.currentThread();
+                if (!state.compareAndSet(INITIAL, RUNNING)) {
+                    runner = null;
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    handleError(e);
+                } finally {
+                    if (!state.compareAndSet(RUNNING, periodic ? INITIAL : FINISHED)) {
+                        // disposed while running: wait until dispose() interrupted this thread, then clear that
+                        while (state.get() == INTERRUPTING) {
+                            Thread.onSpinWait();
+                        }
+                        Thread.interrupted();
+                    }
+                    runner = null;
+                    if (!periodic) {
+                        tasks.remove(this);
+                    }
+                }
+            }
+
+            @Override
+            public void dispose() {
+                for (; ; ) {
+                    int s = state.get();
+                    if (s == FINISHED || s == INTERRUPTING || s == CANCELLED) {
+                        return;
+                    }
+                    if (s == INITIAL && state.compareAndSet(INITIAL, CANCELLED)) {
+                        break;
+                    }
+                    if (s == RUNNING && state.compareAndSet(RUNNING, INTERRUPTING)) {
+                        runner.interrupt();
+                        state.set(CANCELLED);
+                        break;
+                    }
+                }
+                Disposable t = timer;
+                if (t != null) {
+                    t.dispose();
+                }
+                tasks.remove(this);
+            }
+
+            @Override
+            public boolean isDisposed() {
+                int s = state.get();
+                return s == FINISHED || s == INTERRUPTING || s == CANCELLED;
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.schananas.execution;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Parallel stages for skewed workloads, with output in input order like {@link OrderedParallel}.
+ * <p>
+ * {@code ParallelFlux} hands each rail its share of elements up front, so when a few elements are expensive, their
+ * rail backs up while the others sit idle. Here elements are still dealt round-robin onto per-rail deques, but a rail
+ * that runs out of work takes the oldest element waiting on another rail's deque. The oldest ones are stolen rather
+ * than the newest because the output is ordered: an element stuck behind a slow one holds back everything after it.
+ * <p>
+ * Results are put back in order in a ring of {@code maxInFlight} slots; upstream is never asked for more than that
+ * ahead of the oldest unfinished element, so one slow element holds back at most {@code maxInFlight} results.
+ */
+public final class WorkStealingRails {
+
+    private final int rails;
+    private final int maxInFlight;
+    private final Scheduler scheduler;
+    private final AtomicLongArray processed;
+    private final AtomicLongArray stolen;
+
+    /**
+     * @param maxInFlight elements requested from upstream ahead of the oldest one not emitted yet, rounded up to a
+     *                    power of two
+     */
+    public WorkStealingRails(int rails, int maxInFlight, Scheduler scheduler) {
+        if (rails <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("rails and maxInFlight must be positive");
+        }
+        this.rails = rails;
+        this.maxInFlight = Math.max(2, Integer.highestOneBit(maxInFlight - 1) << 1);
+        this.scheduler = scheduler;
+        this.processed = new AtomicLongArray(rails);
+        this.stolen = new AtomicLongArray(rails);
+    }
+
+    public <T, R> Flux<R> map(Flux<T> source, Function<? super T, ? extends R> mapper) {
+        return filterMap(source, t -> true, mapper);
+    }
+
+    /**
+     * Drops the elements not matching {@code filter} and maps the rest, both on the rails.
+     */
+    public <T, R> Flux<R> filterMap(Flux<T> source,
+                                    Predicate<? super T> filter,
+                                    Function<? super T, ? extends R> mapper) {
+        // hidden, so the lifted operator isn't fuseable: the subscriber doesn't implement QueueSubscription
+        return source.hide()
+                     .transform(Operators.<T, R>lift((scannable, actual) ->
+                             new WorkStealingSubscriber<T, R>(actual, this, filter, mapper)));
+    }
+
+    public int rails() {
+        return rails;
+    }
+
+    int maxInFlight() {
+        return maxInFlight;
+    }
+
+    Scheduler scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Elements handled by each rail so far, stolen ones included, indexed by rail.
+     */
+    public long[] processed() {
+        return toArray(processed);
+    }
+
+    /**
+     * Elements each rail took from another rail's deque, indexed by rail.
+     */
+    public long[] stolen() {
+        return toArray(stolen);
+    }
+
+    void recordProcessed(int rail, boolean wasStolen) {
+        processed.incrementAndGet(rail);
+        if (wasStolen) {
+            stolen.incrementAndGet(rail);
+        }
+    }
+
+    private static long[] toArray(AtomicLongArray counters) {
+        long[] result = new long[counters.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counters.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,331 @@
+package com.github.schananas.execution;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.context.Context;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Deals elements onto per-rail deques, runs each rail on its own worker and emits the results in input order.
+ * <p>
+ * Each rail runs while its {@code railWip} slot is non-zero, taking from its own deque and, once that's empty, from
+ * the others. An element dealt to a busy rail also wakes an idle rail, which then steals it. Results land in a ring
+ * indexed by position; whichever thread wins {@code wip} emits the finished prefix and requests as much again
+ * upstream, so no position gets more than {@code maxInFlight} ahead of the oldest unemitted one and slots are never
+ * reused too early.
+ */
+final class WorkStealingSubscriber<T, R> implements CoreSubscriber<T>, Subscription {
+
+    // marks a position whose element didn't match the filter
+    private static final Object FILTERED = new Object();
+
+    private final CoreSubscriber<? super R> actual;
+    private final WorkStealingRails owner;
+    private final Predicate<? super T> filter;
+    private final Function<? super T, ? extends R> mapper;
+    private final int rails;
+    private final int maxInFlight;
+    private final int limit;
+    private final int mask;
+    private final Scheduler.Worker[] workers;
+    private final ConcurrentLinkedDeque<Item<T>>[] deques;
+    private final AtomicIntegerArray railWip;
+    private final AtomicReferenceArray<Object> results;
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile long requested;
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final AtomicLongFieldUpdater<WorkStealingSubscriber<?, ?>> REQUESTED =
+            (AtomicLongFieldUpdater) AtomicLongFieldUpdater.newUpdater(WorkStealingSubscriber.class, "requested");
+
+    private Subscription upstream;
+    // positions handed out so far, written by onNext only
+    private volatile long received;
+    private volatile boolean done;
+    private volatile boolean cancelled;
+
+    // owned by whichever thread wins wip
+    private long emitted;
+    private int consumed;
+    private boolean terminated;
+
+    WorkStealingSubscriber(CoreSubscriber<? super R> actual,
+                           WorkStealingRails owner,
+                           Predicate<? super T> filter,
+                           Function<? super T, ? extends R> mapper) {
+        this.actual = actual;
+        this.owner = owner;
+        this.filter = filter;
+        this.mapper = mapper;
+        this.rails = owner.rails();
+        this.maxInFlight = owner.maxInFlight();
+        this.limit = maxInFlight - (maxInFlight >> 2);
+        this.mask = maxInFlight - 1;
+        this.workers = new Scheduler.Worker[rails];
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        ConcurrentLinkedDeque<Item<T>>[] deques = new ConcurrentLinkedDeque[rails];
+        for (int i = 0; i < rails; i++) {
+            deques[i] = new ConcurrentLinkedDeque<>();
+        }
+        this.deques = deques;
+        this.railWip = new AtomicIntegerArray(rails);
+        this.results = new AtomicReferenceArray<>(maxInFlight);
+    }
+
+    @Override
+    public Context currentContext() {
+        return actual.currentContext();
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        if (Operators.validate(upstream, s)) {
+            upstream = s;
+            for (int i = 0; i < rails; i++) {
+                workers[i] = owner.scheduler().createWorker();
+            }
+            actual.onSubscribe(this);
+            s.request(maxInFlight);
+        }
+    }
+
+    @Override
+    public void onNext(T t) {
+        if (done) {
+            Operators.onNextDropped(t, currentContext());
+            return;
+        }
+        long position = received;
+        int rail = (int) (position % rails);
+        deques[rail].offer(new Item<>(position, t));
+        received = position + 1;
+        if (!wake(rail)) {
+            wakeIdleRail(rail);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        if (done) {
+            Operators.onErrorDropped(t, currentContext());
+            return;
+        }
+        done = true;
+        if (!error.compareAndSet(null, t)) {
+            Operators.onErrorDropped(t, currentContext());
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        if (done) {
+            return;
+        }
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void request(long n) {
+        if (Operators.validate(n)) {
+            Operators.addCap(REQUESTED, this, n);
+            drain();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            upstream.cancel();
+            disposeWorkers();
+            clearDeques();
+        }
+    }
+
+    /**
+     * Starts the rail unless it's already running, in which case it's told to look again. Returns whether it was idle.
+     */
+    private boolean wake(int rail) {
+        if (railWip.getAndIncrement(rail) != 0) {
+            return false;
+        }
+        try {
+            workers[rail].schedule(() -> runRail(rail));
+        } catch (RejectedExecutionException e) {
+            fail(Operators.onRejectedExecution(e, currentContext()));
+        }
+        return true;
+    }
+
+    private void wakeIdleRail(int busy) {
+        for (int k = 1; k < rails; k++) {
+            int rail = (busy + k) % rails;
+            if (railWip.get(rail) == 0 && wake(rail)) {
+                return;
+            }
+        }
+    }
+
+    private void runRail(int rail) {
+        int missed = 1;
+        for (; ; ) {
+            for (; ; ) {
+                if (cancelled || error.get() != null) {
+                    deques[rail].clear();
+                    break;
+                }
+                boolean stolen = false;
+                Item<T> item = deques[rail].pollFirst();
+                if (item == null) {
+                    item = steal(rail);
+                    stolen = item != null;
+                }
+                if (item == null) {
+                    break;
+                }
+                process(rail, item, stolen);
+            }
+            missed = railWip.addAndGet(rail, -missed);
+            if (missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private Item<T> steal(int thief) {
+        for (int k = 1; k < rails; k++) {
+            Item<T> item = deques[(thief + k) % rails].pollFirst();
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private void process(int rail, Item<T> item, boolean stolen) {
+        Object result;
+        try {
+            result = filter.test(item.value)
+                    ? Objects.requireNonNull(mapper.apply(item.value), "The mapper returned a null value")
+                    : FILTERED;
+        } catch (Throwable e) {
+            fail(Operators.onOperatorError(upstream, e, item.value, currentContext()));
+            return;
+        }
+        owner.recordProcessed(rail, stolen);
+        results.set((int) (item.position & mask), result);
+        drain();
+    }
+
+    private void fail(Throwable e) {
+        if (error.compareAndSet(null, e)) {
+            upstream.cancel();
+            drain();
+        } else {
+            Operators.onErrorDropped(e, currentContext());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        for (; ; ) {
+            if (terminated) {
+                return;
+            }
+            long r = requested;
+            long sent = 0;
+            for (; ; ) {
+                if (cancelled) {
+                    return;
+                }
+                Throwable e = error.get();
+                if (e != null) {
+                    terminate();
+                    actual.onError(e);
+                    return;
+                }
+                boolean d = done;
+                int slot = (int) (emitted & mask);
+                Object result = results.get(slot);
+                if (result == null) {
+                    if (d && emitted == received) {
+                        terminate();
+                        actual.onComplete();
+                        return;
+                    }
+                    break;
+                }
+                if (result != FILTERED) {
+                    if (sent == r) {
+                        break;
+                    }
+                    actual.onNext((R) result);
+                    sent++;
+                }
+                results.set(slot, null);
+                emitted++;
+                if (++consumed == limit) {
+                    consumed = 0;
+                    upstream.request(limit);
+                }
+            }
+            if (sent != 0 && r != Long.MAX_VALUE) {
+                REQUESTED.addAndGet(this, -sent);
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private void terminate() {
+        terminated = true;
+        disposeWorkers();
+        clearDeques();
+    }
+
+    private void disposeWorkers() {
+        for (Scheduler.Worker worker : workers) {
+            if (worker != null) {
+                worker.dispose();
+            }
+        }
+    }
+
+    private void clearDeques() {
+        for (ConcurrentLinkedDeque<Item<T>> deque : deques) {
+            deque.clear();
+        }
+    }
+
+    private static final class Item<T> {
+
+        final long position;
+        final T value;
+
+        Item(long position, T value) {
+            this.position = position;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.schananas.ids;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * UUIDs for ids that don't need to be unguessable, like message and event ids.
+ * <p>
+ * {@link UUID#randomUUID()} draws 16 bytes from a shared {@code SecureRandom} per id, which is slow and contended when
+ * many threads generate ids. {@link #timeOrdered()} instead builds a version 7 UUID from state each thread keeps for
+ * itself: the current millisecond, a 12-bit sequence within that millisecond and 62 random bits drawn from
+ * {@link ThreadLocalRandom} once per millisecond. A thread never produces the same id twice; two threads only collide
+ * if they draw the same 62 random bits in the same millisecond. Ids of one thread sort in the order they were made, so
+ * they also index well.
+ * <p>
+ * {@link #uuid()} is what the exercise bases use. It stays {@code randomUUID()} unless the JVM is started with
+ * {@code -Dcom.github.schananas.fastIds=true}.
+ */
+public final class Ids {
+
+    public static final String FAST_IDS_PROPERTY = "com.github.schananas.fastIds";
+
+    private static final boolean FAST = Boolean.getBoolean(FAST_IDS_PROPERTY);
+    private static final int MAX_SEQUENCE = 0xFFF;
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private Ids() {
+    }
+
+    /**
+     * A non-security id: {@link #timeOrdered()} with the fast ids flag set, {@link UUID#randomUUID()} otherwise.
+     */
+    public static UUID uuid() {
+        return FAST ? timeOrdered() : UUID.randomUUID();
+    }
+
+    public static UUID timeOrdered() {
+        return STATE.get().next();
+    }
+
+    /**
+     * Fills {@code batch} with time-ordered ids, looking up the thread's state once for all of them.
+     */
+    public static void timeOrdered(UUID[] batch) {
+        State state = STATE.get();
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = state.next();
+        }
+    }
+
+    private static final class State {
+
+        private long millis = -1;
+        private int sequence;
+        private long random;
+
+        UUID next() {
+            long now = System.currentTimeMillis();
+            if (now > millis) {
+                millis = now;
+                sequence = 0;
+                random = ThreadLocalRandom.current().nextLong();
+            } else if (++sequence > MAX_SEQUENCE) {
+                // 4096 ids in this millisecond already, borrow the next one
+                millis++;
+                sequence = 0;
+            }
+            long msb = millis << 16 | 0x7000 | sequence;
+            long lsb = random & 0x3FFF_FFFF_FFFF_FFFFL | 0x8000_0000_0000_0000L;
+            return new UUID(msb, lsb);
+        }
+    }
+}
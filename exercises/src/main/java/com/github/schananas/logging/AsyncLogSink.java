@@ -0,0 +1,267 @@
+package com.github.schananas.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.MessageFormatter;
+import reactor.util.concurrent.Queues;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log output written by one dedicated thread, so logging from a hot operator doesn't take the {@code System.out} lock
+ * and serialize every rail that logs.
+ * <p>
+ * Loggers are plain slf4j {@link Logger}s. A call only captures the level, message pattern, arguments and thread into
+ * a {@code LogEvent} and offers it to a lock-free multi-producer queue; the pattern is only formatted on the writer
+ * thread, which writes everything it finds in the queue as one batch and flushes once per batch. Since formatting is
+ * deferred, arguments have to be immutable, or at least not change after being logged.
+ * <p>
+ * The queue is bounded. Once it is three quarters full, only one in {@code sampleRate} events below WARN is kept, and
+ * once full, all of them are dropped, which is reported in the output. WARN and ERROR events are never dropped: the
+ * caller waits for room instead, slowing down whatever is logging that much.
+ */
+public final class AsyncLogSink implements AutoCloseable {
+
+    private static final int BATCH_CHARS = 32 * 1024;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static final long FULL_PARK_NANOS = 50_000;
+
+    private final OutputStream out;
+    private final int capacity;
+    private final int samplingThreshold;
+    private final int sampleRate;
+    private final Level threshold;
+    private final Queue<LogEvent> queue = Queues.<LogEvent>unboundedMultiproducer().get();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong sampled = new AtomicLong();
+    private final Thread writer;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private volatile boolean writerIdle;
+    private volatile boolean closed;
+
+    // writer thread only
+    private final StringBuilder batch = new StringBuilder(BATCH_CHARS);
+    private long batched;
+    private long droppedReported;
+
+    private AsyncLogSink(String name, OutputStream out, int capacity, int sampleRate, Level threshold) {
+        this.out = out;
+        this.capacity = capacity;
+        this.samplingThreshold = capacity - capacity / 4;
+        this.sampleRate = sampleRate;
+        this.threshold = threshold;
+        this.writer = Thread.ofPlatform()
+                            .name(name)
+                            .daemon()
+                            .unstarted(this::writeLoop);
+    }
+
+    /**
+     * @param capacity   log events queued before events below WARN are dropped and WARN and ERROR callers wait
+     * @param sampleRate one in how many events below WARN is kept while the queue is over three quarters full
+     * @param threshold  the lowest level logged
+     */
+    public static AsyncLogSink open(String name, OutputStream out, int capacity, int sampleRate, Level threshold) {
+        if (capacity <= 0 || sampleRate <= 0) {
+            throw new IllegalArgumentException("Expected a positive capacity and sample rate");
+        }
+        AsyncLogSink sink = new AsyncLogSink(name, out, capacity, sampleRate, threshold);
+        sink.writer.start();
+        return sink;
+    }
+
+    /**
+     * The sink the exercise bases log to: INFO and up, to {@code System.out}, flushed when the JVM exits.
+     */
+    public static AsyncLogSink shared() {
+        return Shared.SINK;
+    }
+
+    public Logger logger(Class<?> type) {
+        return logger(type.getSimpleName());
+    }
+
+    public Logger logger(String name) {
+        return new AsyncLogger(name, this);
+    }
+
+    boolean isEnabled(Level level) {
+        return level.toInt() >= threshold.toInt();
+    }
+
+    void publish(Level level, String loggerName, String pattern, Object[] arguments, Throwable throwable) {
+        LogEvent event = new LogEvent(System.currentTimeMillis(),
+                                      level,
+                                      Thread.currentThread().getName(),
+                                      loggerName,
+                                      pattern,
+                                      arguments,
+                                      throwable);
+        boolean mustKeep = level.toInt() >= Level.WARN.toInt();
+        for (; ; ) {
+            if (closed) {
+                dropped.increment();
+                return;
+            }
+            int n = queued.get();
+            if (!mustKeep && n >= samplingThreshold && (n >= capacity || sampled.incrementAndGet() % sampleRate != 0)) {
+                dropped.increment();
+                return;
+            }
+            if (n < capacity) {
+                if (queued.compareAndSet(n, n + 1)) {
+                    break;
+                }
+            } else {
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+        }
+        queue.offer(event);
+        offered.incrementAndGet();
+        if (writerIdle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Waits until every event logged before this call is written.
+     */
+    public void flush() {
+        long target = offered.get();
+        while (written.get() < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Events logged but not written yet.
+     */
+    public int queuedCount() {
+        return queued.get();
+    }
+
+    public long writtenCount() {
+        return written.get();
+    }
+
+    /**
+     * Events below WARN dropped by sampling or because the queue was full, plus events logged after {@link #close()}.
+     */
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes what's queued and stops the writer thread. Events logged afterwards are dropped.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        for (; ; ) {
+            LogEvent event = queue.poll();
+            if (event != null) {
+                queued.decrementAndGet();
+                format(event);
+                batched++;
+                if (batch.length() >= BATCH_CHARS) {
+                    writeBatch();
+                }
+                continue;
+            }
+            writeBatch();
+            if (closed && queue.isEmpty()) {
+                return;
+            }
+            writerIdle = true;
+            if (queue.isEmpty() && !closed) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerIdle = false;
+        }
+    }
+
+    private void format(LogEvent event) {
+        LocalTime time = LocalTime.ofInstant(Instant.ofEpochMilli(event.timestamp), zone);
+        pad(time.getHour(), 2).append(':');
+        pad(time.getMinute(), 2).append(':');
+        pad(time.getSecond(), 2).append('.');
+        pad(time.getNano() / 1_000_000, 3);
+        batch.append(" [").append(event.thread).append("] ")
+             .append(event.level)
+             .append(' ').append(event.logger).append(" - ")
+             .append(event.arguments == null
+                             ? event.pattern
+                             : MessageFormatter.basicArrayFormat(event.pattern, event.arguments))
+             .append(System.lineSeparator());
+        if (event.throwable != null) {
+            StringWriter trace = new StringWriter();
+            event.throwable.printStackTrace(new PrintWriter(trace));
+            batch.append(trace);
+        }
+    }
+
+    private StringBuilder pad(int value, int digits) {
+        for (int limit = (int) Math.pow(10, digits - 1); limit > 1 && value < limit; limit /= 10) {
+            batch.append('0');
+        }
+        return batch.append(value);
+    }
+
+    private void writeBatch() {
+        long droppedNow = dropped.sum();
+        if (droppedNow != droppedReported) {
+            batch.append("... ").append(droppedNow - droppedReported).append(" log events dropped")
+                 .append(System.lineSeparator());
+            droppedReported = droppedNow;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            // nowhere left to log it
+            new UncheckedIOException("Could not write log", e).printStackTrace();
+        }
+        batch.setLength(0);
+        written.addAndGet(batched);
+        batched = 0;
+    }
+
+    private static final class Shared {
+
+        static final AsyncLogSink SINK = open("async-log", System.out, 64 * 1024, 10, Level.INFO);
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(SINK::close, "async-log-shutdown"));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.schananas.logging;
+
+import org.slf4j.Marker;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.LegacyAbstractLogger;
+
+import java.io.ObjectStreamException;
+
+/**
+ * slf4j front end of an {@link AsyncLogSink}. {@link LegacyAbstractLogger} takes care of the many overloads and of
+ * telling a trailing {@code Throwable} apart from the arguments; markers are ignored.
+ */
+final class AsyncLogger extends LegacyAbstractLogger {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient AsyncLogSink sink;
+
+    AsyncLogger(String name, AsyncLogSink sink) {
+        this.name = name;
+        this.sink = sink;
+    }
+
+    @Override
+    public boolean isTraceEnabled() {
+        return sink.isEnabled(Level.TRACE);
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return sink.isEnabled(Level.DEBUG);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return sink.isEnabled(Level.INFO);
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return sink.isEnabled(Level.WARN);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return sink.isEnabled(Level.ERROR);
+    }
+
+    /**
+     * The sink isn't serialized, so a deserialized logger is replaced by the shared sink's logger of the same name.
+     */
+    @Override
+    protected Object readResolve() throws ObjectStreamException {
+        return AsyncLogSink.shared().logger(name);
+    }
+
+    @Override
+    protected String getFullyQualifiedCallerName() {
+        return null;
+    }
+
+    @Override
+    protected void handleNormalizedLoggingCall(Level level,
+                                               Marker marker,
+                                               String messagePattern,
+                                               Object[] arguments,
+                                               Throwable throwable) {
+        sink.publish(level, name, messagePattern, arguments, throwable);
+    }
+}
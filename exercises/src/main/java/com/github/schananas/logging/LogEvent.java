@@ -0,0 +1,33 @@
+package com.github.schananas.logging;
+
+import org.slf4j.event.Level;
+
+/**
+ * One logging call as captured on the calling thread, formatted later by the writer thread.
+ */
+final class LogEvent {
+
+    final long timestamp;
+    final Level level;
+    final String thread;
+    final String logger;
+    final String pattern;
+    final Object[] arguments;
+    final Throwable throwable;
+
+    LogEvent(long timestamp,
+             Level level,
+             String thread,
+             String logger,
+             String pattern,
+             Object[] arguments,
+             Throwable throwable) {
+        this.timestamp = timestamp;
+        this.level = level;
+        this.thread = thread;
+        this.logger = logger;
+        this.pattern = pattern;
+        this.arguments = arguments;
+        this.throwable = throwable;
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.schananas.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Immutable consistent-hash ring. Every node is placed on the ring {@code virtualNodes} times, and a key belongs to the
+ * first node clockwise from the key's hash. Adding or removing a node only moves the keys between it and its
+ * neighbours, about {@code 1/nodes} of all keys.
+ */
+public final class ConsistentHashRing<N> {
+
+    private final int virtualNodes;
+    private final NavigableMap<Long, String> ring;
+    private final Map<String, N> nodes;
+
+    public ConsistentHashRing(int virtualNodes) {
+        this(virtualNodes, new TreeMap<>(), new LinkedHashMap<>());
+    }
+
+    private ConsistentHashRing(int virtualNodes, NavigableMap<Long, String> ring, Map<String, N> nodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("virtualNodes must be positive: " + virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+        this.ring = ring;
+        this.nodes = nodes;
+    }
+
+    /**
+     * A ring with {@code node} added, or replacing the node with the same id.
+     */
+    public ConsistentHashRing<N> with(String id, N node) {
+        ConsistentHashRing<N> copy = without(id);
+        for (int i = 0; i < virtualNodes; i++) {
+            copy.ring.put(hash(id + "#" + i), id);
+        }
+        copy.nodes.put(id, node);
+        return copy;
+    }
+
+    /**
+     * A ring without the node with {@code id}.
+     */
+    public ConsistentHashRing<N> without(String id) {
+        TreeMap<Long, String> ringCopy = new TreeMap<>(ring);
+        ringCopy.values().removeIf(id::equals);
+        Map<String, N> nodesCopy = new LinkedHashMap<>(nodes);
+        nodesCopy.remove(id);
+        return new ConsistentHashRing<>(virtualNodes, ringCopy, nodesCopy);
+    }
+
+    /**
+     * The node owning {@code key}, or {@code null} if the ring is empty.
+     */
+    public N nodeFor(String key) {
+        String id = idFor(key);
+        return id == null ? null : nodes.get(id);
+    }
+
+    /**
+     * Id of the node owning {@code key}, or {@code null} if the ring is empty.
+     */
+    public String idFor(String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> owner = ring.ceilingEntry(hash(key));
+        return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+    }
+
+    public Map<String, N> nodes() {
+        return Collections.unmodifiableMap(nodes);
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mixer so that similar keys spread over the whole ring.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
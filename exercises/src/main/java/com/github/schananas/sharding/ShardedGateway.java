@@ -0,0 +1,169 @@
+package com.github.schananas.sharding;
+
+import com.github.schananas.batching.IdleEvictingGroups;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Routes items to workers by consistent hashing on their key, with items of one key sent one at a time and in order.
+ * <p>
+ * The owner of a key is looked up when its next item is about to be sent, and only after the previous item of that
+ * key has completed on whichever worker it went to. So when workers are added or removed, a key that moves first
+ * drains on its old worker and only then continues on the new one, and keys that don't move are not held up at all.
+ */
+public final class ShardedGateway<T> {
+
+    private final Function<? super T, String> keyOf;
+    private final IdleEvictingGroups<T> groups;
+    private volatile ConsistentHashRing<Node<T>> ring;
+
+    /**
+     * @param virtualNodes how many times each worker is placed on the ring; more gives a more even spread
+     * @param idleTtl      how long per-key ordering state is kept for a key that has nothing to send
+     */
+    public ShardedGateway(Function<? super T, String> keyOf, int virtualNodes, Duration idleTtl) {
+        this.keyOf = keyOf;
+        this.groups = new IdleEvictingGroups<>(keyOf, idleTtl);
+        this.ring = new ConsistentHashRing<>(virtualNodes);
+    }
+
+    /**
+     * Sends every item of {@code source} to the worker owning its key. At most {@code maxPending} items are requested
+     * from {@code source} ahead of being sent. Fails on the first failed send, or if an item arrives while there are no
+     * workers.
+     */
+    public Mono<Void> process(Flux<T> source, int maxPending) {
+        return groups.process(source, this::dispatch, maxPending)
+                     .then();
+    }
+
+    /**
+     * Adds {@code worker} to the ring. Keys it takes over are sent to it as soon as their in-flight item completes on
+     * their previous owner.
+     */
+    public synchronized void addWorker(Worker<T> worker) {
+        Node<T> previous = ring.nodes().get(worker.id());
+        ring = ring.with(worker.id(), new Node<>(worker));
+        if (previous != null) {
+            previous.retire();
+        }
+    }
+
+    /**
+     * Takes the worker with {@code id} off the ring, so no new item is sent to it. The returned {@code Mono} completes
+     * once the items already sent to it have completed, after which the worker can be shut down.
+     */
+    public Mono<Void> removeWorker(String id) {
+        Node<T> node;
+        synchronized (this) {
+            node = ring.nodes().get(id);
+            if (node == null) {
+                return Mono.empty();
+            }
+            ring = ring.without(id);
+        }
+        node.retire();
+        return node.drained.asMono();
+    }
+
+    /**
+     * Id of the worker the next item with {@code key} would go to, or {@code null} without workers.
+     */
+    public String ownerOf(String key) {
+        return ring.idFor(key);
+    }
+
+    /**
+     * Items sent so far and items currently in flight, per worker on the ring.
+     */
+    public Map<String, WorkerStats> stats() {
+        Map<String, WorkerStats> stats = new LinkedHashMap<>();
+        ring.nodes().forEach((id, node) -> stats.put(id, new WorkerStats(node.sent.get(), node.inFlight.get())));
+        return stats;
+    }
+
+    private Mono<Void> dispatch(T item) {
+        return Mono.defer(() -> {
+            String key = keyOf.apply(item);
+            for (; ; ) {
+                Node<T> node = ring.nodeFor(key);
+                if (node == null) {
+                    return Mono.error(new IllegalStateException("No worker available for key " + key));
+                }
+                if (node.acquire()) {
+                    return node.worker.send(item)
+                                      .doFinally(s -> node.release());
+                }
+                // retired between the lookup and acquire, look again on the updated ring
+            }
+        });
+    }
+
+    private static final class Node<T> {
+
+        final Worker<T> worker;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicLong sent = new AtomicLong();
+        final Sinks.Empty<Void> drained = Sinks.empty();
+        volatile boolean retired;
+
+        Node(Worker<T> worker) {
+            this.worker = worker;
+        }
+
+        boolean acquire() {
+            inFlight.incrementAndGet();
+            if (retired) {
+                release();
+                return false;
+            }
+            sent.incrementAndGet();
+            return true;
+        }
+
+        void release() {
+            if (inFlight.decrementAndGet() == 0 && retired) {
+                drained.tryEmitEmpty();
+            }
+        }
+
+        void retire() {
+            retired = true;
+            if (inFlight.get() == 0) {
+                drained.tryEmitEmpty();
+            }
+        }
+    }
+
+    public static final class WorkerStats {
+
+        private final long sent;
+        private final int inFlight;
+
+        WorkerStats(long sent, int inFlight) {
+            this.sent = sent;
+            this.inFlight = inFlight;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        @Override
+        public String toString() {
+            return "WorkerStats[sent=" + sent + ", inFlight=" + inFlight + "]";
+        }
+    }
+}
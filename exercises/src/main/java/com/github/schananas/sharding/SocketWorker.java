@@ -0,0 +1,135 @@
+package com.github.schananas.sharding;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * {@link Worker} that sends items over a single socket connection to a {@link SocketWorkerServer}. Many items can be
+ * in flight at once; responses are matched to requests by correlation id.
+ */
+public final class SocketWorker<T> implements Worker<T>, AutoCloseable {
+
+    private final String id;
+    private final Function<? super T, byte[]> encoder;
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final ConcurrentHashMap<Long, MonoSink<Void>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile IOException failure;
+
+    private SocketWorker(String id, Function<? super T, byte[]> encoder, Socket socket) throws IOException {
+        this.id = id;
+        this.encoder = encoder;
+        this.socket = socket;
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        Thread reader = new Thread(() -> readResponses(in), "socket-worker-client-" + id);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public static <T> SocketWorker<T> connect(String id, InetSocketAddress address, Function<? super T, byte[]> encoder) {
+        try {
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            return new SocketWorker<>(id, encoder, socket);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not connect worker " + id + " to " + address, e);
+        }
+    }
+
+    @Override
+    public String id() {
+        return id;
+    }
+
+    @Override
+    public Mono<Void> send(T item) {
+        return Mono.<Void>create(sink -> {
+                       IOException failed = failure;
+                       if (failed != null) {
+                           sink.error(failed);
+                           return;
+                       }
+                       // encoded before registering, so an encoder that throws leaves nothing behind
+                       byte[] frame = encoder.apply(item);
+                       long requestId = nextId.incrementAndGet();
+                       pending.put(requestId, sink);
+                       sink.onCancel(() -> pending.remove(requestId));
+                       if (failure != null && pending.remove(requestId) != null) {
+                           sink.error(failure);
+                           return;
+                       }
+                       try {
+                           synchronized (out) {
+                               out.writeInt(frame.length);
+                               out.writeLong(requestId);
+                               out.write(frame);
+                               out.flush();
+                           }
+                       } catch (IOException e) {
+                           pending.remove(requestId);
+                           sink.error(e);
+                       }
+                   })
+                   .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Items sent and not answered yet.
+     */
+    int pendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void readResponses(DataInputStream in) {
+        try {
+            for (; ; ) {
+                long requestId = in.readLong();
+                boolean ok = in.readBoolean();
+                String message = null;
+                if (!ok) {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    message = new String(bytes, StandardCharsets.UTF_8);
+                }
+                MonoSink<Void> sink = pending.remove(requestId);
+                if (sink == null) {
+                    continue;
+                }
+                if (ok) {
+                    sink.success();
+                } else {
+                    sink.error(new IllegalStateException("Worker " + id + " failed: " + message));
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            pending.values().forEach(sink -> sink.error(e));
+            pending.clear();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.schananas.sharding;
+
+import reactor.core.publisher.Mono;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Worker node listening on a loopback port, standing in for a remote node in local runs. Each request frame carries a
+ * correlation id and an encoded item; the item is handled with {@code handler} and the outcome is written back with
+ * the same id. Requests on one connection are handled concurrently and may complete out of order.
+ * <p>
+ * Request frame: {@code [int length][long id][length bytes of item]}. Response frame: {@code [long id][byte ok]},
+ * followed by {@code [int length][UTF-8 message]} when not ok.
+ */
+public final class SocketWorkerServer<T> implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final Function<byte[], T> decoder;
+    private final Function<? super T, Mono<Void>> handler;
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+
+    private SocketWorkerServer(ServerSocket serverSocket,
+                               Function<byte[], T> decoder,
+                               Function<? super T, Mono<Void>> handler) {
+        this.serverSocket = serverSocket;
+        this.decoder = decoder;
+        this.handler = handler;
+    }
+
+    /**
+     * Starts a server on an ephemeral loopback port.
+     */
+    public static <T> SocketWorkerServer<T> start(Function<byte[], T> decoder, Function<? super T, Mono<Void>> handler) {
+        try {
+            ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            SocketWorkerServer<T> server = new SocketWorkerServer<>(serverSocket, decoder, handler);
+            Thread acceptor = new Thread(server::acceptLoop, "socket-worker-accept-" + serverSocket.getLocalPort());
+            acceptor.setDaemon(true);
+            acceptor.start();
+            return server;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start worker server", e);
+        }
+    }
+
+    public InetSocketAddress address() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+            for (Socket connection : connections) {
+                connection.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                Thread reader = new Thread(() -> serve(socket), "socket-worker-" + socket.getPort());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                // server socket closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            for (; ; ) {
+                int length = in.readInt();
+                long id = in.readLong();
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                Mono.defer(() -> handler.apply(decoder.apply(frame)))
+                    .subscribe(null,
+                               error -> respond(out, id, error),
+                               () -> respond(out, id, null));
+            }
+        } catch (EOFException e) {
+            // client went away
+        } catch (IOException e) {
+            // connection closed
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    private static void respond(DataOutputStream out, long id, Throwable error) {
+        synchronized (out) {
+            try {
+                out.writeLong(id);
+                out.writeBoolean(error == null);
+                if (error != null) {
+                    byte[] message = String.valueOf(error.getMessage()).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(message.length);
+                    out.write(message);
+                }
+                out.flush();
+            } catch (IOException e) {
+                // the client is gone, nobody to tell
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.schananas.sharding;
+
+import reactor.core.publisher.Mono;
+
+import java.util.function.Function;
+
+/**
+ * A node that items can be sent to. {@link #send(Object)} must only complete once the node is done with the item,
+ * because {@link ShardedGateway} relies on that to keep items of a key in order when the key moves between nodes.
+ */
+public interface Worker<T> {
+
+    String id();
+
+    Mono<Void> send(T item);
+
+    /**
+     * A worker running in this JVM, handling items with {@code handler}.
+     */
+    static <T> Worker<T> inProcess(String id, Function<? super T, Mono<Void>> handler) {
+        return new Worker<>() {
+            @Override
+            public String id() {
+                return id;
+            }
+
+            @Override
+            public Mono<Void> send(T item) {
+                return Mono.defer(() -> handler.apply(item));
+            }
+        };
+    }
+}
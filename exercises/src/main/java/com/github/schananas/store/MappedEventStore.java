@@ -0,0 +1,403 @@
+package com.github.schananas.store;
+
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only event log kept as a directory of memory-mapped segment files. Every record gets a sequential offset,
+ * starting at 0.
+ * <p>
+ * Appending checksums the payload and copies it into the mapped segment, with no system call on the way. Reads don't
+ * copy at all: {@link #readFrom(long)} emits read-only views of the mapped pages. A sparse in-memory index, one entry
+ * every {@code indexInterval} records, lets a reader find any offset by walking at most that many records.
+ * <p>
+ * Segments are rolled once the next record doesn't fit, and the oldest segments are deleted once there are more than
+ * {@code maxSegments} of them, or once nothing was appended to them for {@code maxAge}. Age is checked on every roll
+ * and, so that a store that is rarely appended to lets go of old segments too, periodically on the read scheduler.
+ * Data reaches the disk when the OS writes back the mapped pages, or on {@link #flush()}.
+ */
+public final class MappedEventStore implements AutoCloseable {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int DEFAULT_INDEX_INTERVAL = 64;
+    private static final long MAX_RETENTION_CHECK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int indexInterval;
+    private final int maxSegments;
+    private final long maxAgeMillis;
+    private final Scheduler readScheduler;
+
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Set<Tailer> tailers = ConcurrentHashMap.newKeySet();
+    private final AtomicLong deletedSegments = new AtomicLong();
+    private volatile Segment active;
+    private volatile boolean closed;
+    private Disposable retentionCheck = Disposables.disposed();
+
+    private MappedEventStore(Path dir,
+                             int segmentBytes,
+                             int indexInterval,
+                             int maxSegments,
+                             Duration maxAge,
+                             Scheduler readScheduler) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.indexInterval = indexInterval;
+        this.maxSegments = maxSegments;
+        this.maxAgeMillis = maxAge.toMillis();
+        this.readScheduler = readScheduler;
+        recover();
+        if (maxAgeMillis != Long.MAX_VALUE) {
+            long period = Math.max(1, Math.min(maxAgeMillis, MAX_RETENTION_CHECK_MILLIS));
+            this.retentionCheck = readScheduler.schedulePeriodically(this::checkRetention,
+                                                                     period,
+                                                                     period,
+                                                                     TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Opens the store in {@code dir}, creating it if needed, keeping segments forever.
+     */
+    public static MappedEventStore open(Path dir, int segmentBytes) {
+        return open(dir, segmentBytes, Integer.MAX_VALUE, Duration.ofMillis(Long.MAX_VALUE));
+    }
+
+    /**
+     * Opens the store in {@code dir}, creating it if needed, and recovers the records already in it.
+     *
+     * @param segmentBytes size of each segment file, which is also the upper bound on a record
+     * @param maxSegments  segments to keep, including the one being appended to
+     * @param maxAge       segments nothing was appended to for this long are deleted
+     */
+    public static MappedEventStore open(Path dir, int segmentBytes, int maxSegments, Duration maxAge) {
+        return open(dir, segmentBytes, maxSegments, maxAge, DEFAULT_INDEX_INTERVAL, Schedulers.parallel());
+    }
+
+    /**
+     * @param indexInterval  records between two entries of the sparse index
+     * @param readScheduler  where tailing readers pick up records appended after they caught up, and where segment age
+     *                       is checked
+     */
+    public static MappedEventStore open(Path dir,
+                                        int segmentBytes,
+                                        int maxSegments,
+                                        Duration maxAge,
+                                        int indexInterval,
+                                        Scheduler readScheduler) {
+        if (segmentBytes <= Segment.HEADER_BYTES || maxSegments < 1 || indexInterval < 1) {
+            throw new IllegalArgumentException("Expected room for a record, at least one segment and a positive "
+                                                       + "index interval");
+        }
+        try {
+            Files.createDirectories(dir);
+            return new MappedEventStore(dir, segmentBytes, indexInterval, maxSegments, maxAge, readScheduler);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open event store in " + dir, e);
+        }
+    }
+
+    /**
+     * Appends {@code payload} and returns its offset. The record is visible to readers as soon as this returns.
+     */
+    public synchronized long append(ByteBuffer payload) {
+        if (closed) {
+            throw new IllegalStateException("Event store is closed");
+        }
+        int length = payload.remaining();
+        if (length == 0 || length > segmentBytes - Segment.HEADER_BYTES) {
+            throw new IllegalArgumentException("Record of " + length + " bytes doesn't fit a segment of "
+                                                       + segmentBytes + " bytes");
+        }
+        Segment segment = active;
+        if (!segment.fits(length)) {
+            segment = roll();
+        }
+        long offset = segment.append(payload);
+        for (Tailer tailer : tailers) {
+            tailer.signal();
+        }
+        return offset;
+    }
+
+    public long append(byte[] payload) {
+        return append(ByteBuffer.wrap(payload));
+    }
+
+    public long append(String payload) {
+        return append(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Emits every record from {@code offset} on, then keeps emitting records as they are appended, until cancelled.
+     * Records are read only as fast as they are requested.
+     * <p>
+     * The payload of an emitted {@link Record} is a view of the mapped segment, which stays mapped for as long as the
+     * view is reachable, even once retention deleted its file. Fails if {@code offset} has already been deleted.
+     */
+    public Flux<Record> readFrom(long offset) {
+        return Flux.create(sink -> {
+            Tailer tailer = new Tailer(sink, offset);
+            tailers.add(tailer);
+            sink.onRequest(n -> tailer.signal());
+            sink.onDispose(() -> tailers.remove(tailer));
+        }, FluxSink.OverflowStrategy.ERROR);
+    }
+
+    /**
+     * Offset the next appended record will get.
+     */
+    public long nextOffset() {
+        return active.nextOffset();
+    }
+
+    /**
+     * Lowest offset that can still be read.
+     */
+    public long firstOffset() {
+        return segments.firstKey();
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    public long deletedSegmentCount() {
+        return deletedSegments.get();
+    }
+
+    /**
+     * Forces appended records in the active segment to disk. Rolled segments are forced when they are rolled.
+     */
+    public void flush() {
+        active.force();
+    }
+
+    /**
+     * Deletes segments that are past their age. Also done on every roll, and periodically.
+     */
+    public synchronized void enforceRetention() {
+        if (closed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        while (segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            boolean tooMany = segments.size() > maxSegments;
+            boolean tooOld = now - oldest.lastAppendMillis() > maxAgeMillis;
+            if (oldest == active || !(tooMany || tooOld)) {
+                break;
+            }
+            delete(oldest);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        retentionCheck.dispose();
+        try {
+            active.force();
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close event store in " + dir, e);
+        }
+    }
+
+    private void checkRetention() {
+        try {
+            enforceRetention();
+        } catch (UncheckedIOException e) {
+            // tried again on the next check
+            Operators.onErrorDropped(e, Context.empty());
+        }
+    }
+
+    private Segment roll() {
+        try {
+            Segment current = active;
+            current.force();
+            Segment next = Segment.open(segmentFile(current.nextOffset()),
+                                        current.nextOffset(),
+                                        segmentBytes,
+                                        indexInterval);
+            segments.put(next.baseOffset, next);
+            active = next;
+            enforceRetention();
+            return next;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not roll segment in " + dir, e);
+        }
+    }
+
+    private void delete(Segment segment) {
+        segments.remove(segment.baseOffset);
+        try {
+            // readers still positioned in the segment keep reading from its mapping
+            segment.close();
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not delete " + segment.file, e);
+        }
+        deletedSegments.incrementAndGet();
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long base = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            segments.put(base, Segment.open(file, base, segmentBytes, indexInterval));
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, Segment.open(segmentFile(0), 0, segmentBytes, indexInterval));
+        }
+        active = segments.lastEntry().getValue();
+        enforceRetention();
+    }
+
+    private Path segmentFile(long baseOffset) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, baseOffset, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * One reader of {@link #readFrom(long)}. Emits on the read scheduler, both when more is requested and, once it
+     * caught up, when a record is appended. A work-in-progress counter keeps emission serial.
+     */
+    private final class Tailer {
+
+        private final FluxSink<Record> sink;
+        private final AtomicInteger wip = new AtomicInteger();
+        private long offset;
+        private Segment segment;
+        private int position;
+
+        Tailer(FluxSink<Record> sink, long offset) {
+            this.sink = sink;
+            this.offset = offset;
+        }
+
+        void signal() {
+            if (wip.getAndIncrement() == 0) {
+                readScheduler.schedule(this::drain);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                try {
+                    emitAvailable();
+                } catch (RuntimeException e) {
+                    sink.error(e);
+                    tailers.remove(this);
+                    return;
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emitAvailable() {
+            if (segment == null && !seek()) {
+                return;
+            }
+            while (sink.requestedFromDownstream() > 0 && !sink.isCancelled()) {
+                if (offset >= segment.nextOffset()) {
+                    Map.Entry<Long, Segment> next = segments.higherEntry(segment.baseOffset);
+                    if (next == null) {
+                        return;
+                    }
+                    if (next.getKey() != offset) {
+                        // segments after the one being read were deleted before this reader got to them
+                        throw new IllegalStateException("Reader fell behind retention at offset " + offset
+                                                                + ", first offset is " + segments.firstKey());
+                    }
+                    segment = next.getValue();
+                    position = 0;
+                }
+                int length = segment.lengthAt(position);
+                sink.next(new Record(offset, segment.payloadAt(position, length)));
+                position += Segment.HEADER_BYTES + length;
+                offset++;
+            }
+        }
+
+        private boolean seek() {
+            Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+            if (entry == null || offset < segments.firstKey()) {
+                throw new IllegalArgumentException("Offset " + offset + " was already deleted, first offset is "
+                                                           + segments.firstKey());
+            }
+            if (offset > entry.getValue().nextOffset()) {
+                // not appended yet; wait for it
+                return false;
+            }
+            segment = entry.getValue();
+            position = segment.positionOf(offset);
+            return true;
+        }
+    }
+
+    public static final class Record {
+
+        private final long offset;
+        private final ByteBuffer payload;
+
+        Record(long offset, ByteBuffer payload) {
+            this.offset = offset;
+            this.payload = payload;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Read-only view of the payload in the mapped segment.
+         */
+        public ByteBuffer getPayload() {
+            return payload;
+        }
+
+        public String getPayloadAsString() {
+            return StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+        }
+    }
+}
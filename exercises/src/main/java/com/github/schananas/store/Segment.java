@@ -0,0 +1,175 @@
+package com.github.schananas.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * One memory-mapped segment file of a {@link MappedEventStore}, holding the records from {@code baseOffset} on.
+ * <p>
+ * Records are laid out as {@code [int length][int crc32][payload]}, and the zeroed tail of the file marks the end of
+ * the segment. The length is written last, but that orders the writes in memory only: the OS writes the mapped pages
+ * back in any order, so after a crash a record's length may be on disk without its payload. Recovery therefore checks
+ * every record against its checksum and stops at the first that doesn't match, zeroing everything after it. A single
+ * writer appends; readers only look at records below the volatile {@link #nextOffset}, which is published after the
+ * record is written.
+ */
+final class Segment {
+
+    static final int HEADER_BYTES = Integer.BYTES * 2;
+
+    final long baseOffset;
+    final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int indexInterval;
+    private final CRC32 crc = new CRC32();
+
+    // sparse index: position of every indexInterval-th record, guarded by this
+    private int[] index = new int[16];
+    private int indexSize;
+
+    private volatile int writePosition;
+    private volatile long nextOffset;
+    private volatile long lastAppendMillis;
+
+    private Segment(long baseOffset, Path file, FileChannel channel, MappedByteBuffer buffer, int indexInterval) {
+        this.baseOffset = baseOffset;
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.indexInterval = indexInterval;
+        this.nextOffset = baseOffset;
+    }
+
+    /**
+     * Maps {@code file}, creating and sizing it to {@code capacity} if needed, and recovers the records already in it.
+     */
+    static Segment open(Path file, long baseOffset, int capacity, int indexInterval) throws IOException {
+        boolean existed = Files.exists(file);
+        FileChannel channel = FileChannel.open(file,
+                                               StandardOpenOption.CREATE,
+                                               StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+        int size = (int) Math.max(capacity, channel.size());
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        Segment segment = new Segment(baseOffset, file, channel, buffer, indexInterval);
+        segment.lastAppendMillis = existed ? Files.getLastModifiedTime(file).toMillis() : System.currentTimeMillis();
+        segment.recover();
+        return segment;
+    }
+
+    private void recover() {
+        int position = 0;
+        long offset = baseOffset;
+        while (position + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0
+                    || position + HEADER_BYTES + length > buffer.capacity()
+                    || checksum(buffer.slice(position + HEADER_BYTES, length)) != buffer.getInt(position + Integer.BYTES)) {
+                break;
+            }
+            indexIfDue(offset, position);
+            position += HEADER_BYTES + length;
+            offset++;
+        }
+        // a record torn by a crash; whatever follows it could pass for records once appends overwrite it
+        for (int i = position; i < buffer.capacity(); i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        writePosition = position;
+        nextOffset = offset;
+    }
+
+    boolean fits(int payloadLength) {
+        return writePosition + HEADER_BYTES + payloadLength <= buffer.capacity();
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Appends a record; the caller checked {@link #fits(int)} and is the only writer.
+     */
+    long append(ByteBuffer payload) {
+        int position = writePosition;
+        int length = payload.remaining();
+        buffer.put(position + HEADER_BYTES, payload, payload.position(), length);
+        buffer.putInt(position + Integer.BYTES, checksum(payload.duplicate()));
+        buffer.putInt(position, length);
+        long offset = nextOffset;
+        indexIfDue(offset, position);
+        writePosition = position + HEADER_BYTES + length;
+        lastAppendMillis = System.currentTimeMillis();
+        nextOffset = offset + 1;
+        return offset;
+    }
+
+    long nextOffset() {
+        return nextOffset;
+    }
+
+    long lastAppendMillis() {
+        return lastAppendMillis;
+    }
+
+    /**
+     * Position of the record at {@code offset}: jump to the closest indexed record before it, then walk forward.
+     */
+    int positionOf(long offset) {
+        long relative = offset - baseOffset;
+        int slot = (int) (relative / indexInterval);
+        int position;
+        synchronized (this) {
+            slot = Math.max(0, Math.min(slot, indexSize - 1));
+            position = indexSize == 0 ? 0 : index[slot];
+        }
+        for (long o = baseOffset + (long) slot * indexInterval; o < offset; o++) {
+            position += HEADER_BYTES + buffer.getInt(position);
+        }
+        return position;
+    }
+
+    int lengthAt(int position) {
+        return buffer.getInt(position);
+    }
+
+    /**
+     * Read-only view of the payload at {@code position}, backed by the mapped file. Nothing is copied.
+     */
+    ByteBuffer payloadAt(int position, int length) {
+        return buffer.slice(position + HEADER_BYTES, length).asReadOnlyBuffer();
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    private int checksum(ByteBuffer payload) {
+        crc.reset();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private synchronized void indexIfDue(long offset, int position) {
+        if ((offset - baseOffset) % indexInterval == 0) {
+            if (indexSize == index.length) {
+                index = Arrays.copyOf(index, indexSize * 2);
+            }
+            index[indexSize++] = position;
+        }
+    }
+}
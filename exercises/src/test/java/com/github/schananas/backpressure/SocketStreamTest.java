@@ -0,0 +1,151 @@
+package com.github.schananas.backpressure;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class SocketStreamTest {
+
+    @Test
+    public void elements_arrive_in_order_followed_by_completion() {
+        try (SocketStreamServer<String> server = serve(() -> Flux.range(0, 10_000).map(String::valueOf))) {
+            List<String> expected = IntStream.range(0, 10_000).mapToObj(String::valueOf).collect(Collectors.toList());
+
+            StepVerifier.create(connect(server, 32))
+                        .expectNextSequence(expected)
+                        .expectComplete()
+                        .verify(Duration.ofSeconds(10));
+        }
+    }
+
+    @Test
+    public void the_server_never_sends_more_than_prefetch_ahead_of_downstream() throws Exception {
+        AtomicLong emitted = new AtomicLong();
+        Supplier<Flux<String>> source = () -> Flux.range(0, 1_000)
+                                                  .map(String::valueOf)
+                                                  .doOnNext(s -> emitted.incrementAndGet());
+        try (SocketStreamServer<String> server = serve(source)) {
+            AtomicLong received = new AtomicLong();
+            BaseSubscriber<String> subscriber = new BaseSubscriber<>() {
+                @Override
+                protected void hookOnSubscribe(Subscription subscription) {
+                    // request nothing yet
+                }
+
+                @Override
+                protected void hookOnNext(String value) {
+                    received.incrementAndGet();
+                }
+            };
+            connect(server, 8).subscribe(subscriber);
+
+            // only the prefetch window is granted up front
+            await(() -> emitted.get() == 8);
+            Thread.sleep(100);
+            Assertions.assertEquals(8, emitted.get());
+
+            // consumed, but not enough to reach the replenishing threshold of three quarters
+            subscriber.request(5);
+            await(() -> received.get() == 5);
+            Thread.sleep(100);
+            Assertions.assertEquals(8, emitted.get());
+
+            subscriber.request(1);
+            await(() -> emitted.get() == 14);
+            Thread.sleep(100);
+            Assertions.assertEquals(14, emitted.get());
+
+            subscriber.request(Long.MAX_VALUE);
+            await(() -> received.get() == 1_000);
+            Assertions.assertEquals(1_000, emitted.get());
+        }
+    }
+
+    @Test
+    public void a_failing_source_is_sent_as_an_error_after_its_elements() {
+        Supplier<Flux<String>> source = () -> Flux.just("a", "b")
+                                                  .concatWith(Flux.error(new IllegalArgumentException("boom")));
+        try (SocketStreamServer<String> server = serve(source)) {
+            StepVerifier.create(connect(server, 4))
+                        .expectNext("a", "b")
+                        .expectErrorSatisfies(e -> {
+                            Assertions.assertInstanceOf(IllegalStateException.class, e);
+                            Assertions.assertEquals("Remote stream failed: boom", e.getMessage());
+                        })
+                        .verify(Duration.ofSeconds(10));
+        }
+    }
+
+    @Test
+    public void frames_bigger_than_the_buffers_arrive_whole() {
+        String large = "x".repeat(SocketStreamServer.BUFFER_BYTES * 3 + 17);
+        String larger = "y".repeat(SocketStreamServer.BUFFER_BYTES * 5);
+        try (SocketStreamServer<String> server = serve(() -> Flux.just("small", large, "between", larger, "last"))) {
+            StepVerifier.create(connect(server, 2))
+                        .expectNext("small", large, "between", larger, "last")
+                        .expectComplete()
+                        .verify(Duration.ofSeconds(10));
+        }
+    }
+
+    @Test
+    public void cancelling_the_client_cancels_the_server_side_subscription() throws Exception {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        Supplier<Flux<String>> source = () -> Flux.interval(Duration.ofMillis(1))
+                                                  .map(String::valueOf)
+                                                  .doOnCancel(cancelled::countDown);
+        try (SocketStreamServer<String> server = serve(source)) {
+            StepVerifier.create(connect(server, 16).take(5))
+                        .expectNext("0", "1", "2", "3", "4")
+                        .expectComplete()
+                        .verify(Duration.ofSeconds(10));
+
+            Assertions.assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void connecting_to_a_closed_server_fails() {
+        InetSocketAddress address;
+        try (SocketStreamServer<String> server = serve(Flux::empty)) {
+            address = server.address();
+        }
+        StepVerifier.create(SocketStream.connect(address, bytes -> new String(bytes, StandardCharsets.UTF_8), 4))
+                    .expectError(UncheckedIOException.class)
+                    .verify(Duration.ofSeconds(10));
+    }
+
+    private static SocketStreamServer<String> serve(Supplier<? extends Flux<String>> source) {
+        return SocketStreamServer.start(source, s -> s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Flux<String> connect(SocketStreamServer<String> server, int prefetch) {
+        return SocketStream.connect(server.address(), bytes -> new String(bytes, StandardCharsets.UTF_8), prefetch);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                Assertions.fail("Timed out waiting");
+            }
+            Thread.sleep(5);
+        }
+    }
+}
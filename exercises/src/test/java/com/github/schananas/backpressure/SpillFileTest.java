@@ -0,0 +1,78 @@
+package com.github.schananas.backpressure;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class SpillFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void records_come_back_in_order_including_ones_bigger_than_a_block() throws Exception {
+        byte[] small = {1, 2, 3};
+        byte[] large = new byte[200 * 1024];
+        Arrays.fill(large, (byte) 7);
+        large[large.length - 1] = 9;
+
+        try (SpillFile file = SpillFile.create(dir)) {
+            file.append(small);
+            file.append(large);
+            file.append(new byte[0]);
+            file.append(small);
+
+            Assertions.assertArrayEquals(small, file.read());
+            Assertions.assertArrayEquals(large, file.read());
+            Assertions.assertArrayEquals(new byte[0], file.read());
+            Assertions.assertArrayEquals(small, file.read());
+            Assertions.assertNull(file.read());
+        }
+    }
+
+    @Test
+    public void reads_interleaved_with_appends_keep_their_order() throws Exception {
+        try (SpillFile file = SpillFile.create(dir)) {
+            int written = 0;
+            int read = 0;
+            while (written < 50_000) {
+                for (int i = 0; i < 7; i++) {
+                    file.append(Integer.toString(written++).getBytes());
+                }
+                for (int i = 0; i < 5; i++) {
+                    Assertions.assertEquals(Integer.toString(read++), new String(file.read()));
+                }
+            }
+            byte[] next;
+            while ((next = file.read()) != null) {
+                Assertions.assertEquals(Integer.toString(read++), new String(next));
+            }
+            Assertions.assertEquals(written, read);
+        }
+    }
+
+    @Test
+    public void file_is_truncated_once_the_reader_catches_up() throws Exception {
+        byte[] record = new byte[1024];
+        try (SpillFile file = SpillFile.create(dir)) {
+            for (int i = 0; i < 200; i++) {
+                file.append(record);
+            }
+            Assertions.assertTrue(file.size() > 0);
+
+            for (int i = 0; i < 199; i++) {
+                file.read();
+            }
+            Assertions.assertTrue(file.size() > 0);
+            file.read();
+            Assertions.assertEquals(0, file.size());
+
+            file.append(new byte[]{42});
+            Assertions.assertArrayEquals(new byte[]{42}, file.read());
+            Assertions.assertNull(file.read());
+        }
+    }
+}
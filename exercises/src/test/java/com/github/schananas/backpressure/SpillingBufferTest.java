@@ -0,0 +1,158 @@
+package com.github.schananas.backpressure;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.TestPublisher;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class SpillingBufferTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void overflow_spills_to_disk_and_comes_back_in_order() {
+        SpillingBuffer<String> buffer = new SpillingBuffer<>(16, dir, SpillSerializer.utf8());
+        List<String> expected = new ArrayList<>();
+        long expectedBytes = 0;
+        for (int i = 0; i < 10_000; i++) {
+            expected.add(Integer.toString(i));
+            if (i >= 16) {
+                expectedBytes += Integer.BYTES + Integer.toString(i).length();
+            }
+        }
+        long spilledBytes = expectedBytes;
+
+        StepVerifier.create(buffer.buffer(Flux.fromIterable(expected)), 0)
+                    .then(() -> {
+                        SpillingBuffer.Metrics metrics = buffer.metrics();
+                        Assertions.assertEquals(10_000 - 16, metrics.getSpilledElements());
+                        Assertions.assertEquals(10_000 - 16, metrics.getPendingElements());
+                        Assertions.assertEquals(spilledBytes, metrics.getSpilledBytes());
+                        Assertions.assertEquals(spilledBytes, metrics.getPendingBytes());
+                    })
+                    .thenRequest(Long.MAX_VALUE)
+                    .expectNextSequence(expected)
+                    .verifyComplete();
+
+        SpillingBuffer.Metrics metrics = buffer.metrics();
+        Assertions.assertEquals(0, metrics.getPendingElements());
+        Assertions.assertEquals(0, metrics.getPendingBytes());
+        Assertions.assertEquals(spilledBytes, metrics.getMaxPendingBytes());
+    }
+
+    @Test
+    public void elements_go_back_to_memory_once_the_file_is_read() {
+        SpillingBuffer<String> buffer = new SpillingBuffer<>(4, dir, SpillSerializer.utf8());
+        TestPublisher<String> source = TestPublisher.create();
+
+        StepVerifier.create(buffer.buffer(source.flux()), 0)
+                    .then(() -> source.next("0", "1", "2", "3", "4", "5"))
+                    .then(() -> Assertions.assertEquals(2, buffer.metrics().getSpilledElements()))
+                    .thenRequest(6)
+                    .expectNext("0", "1", "2", "3", "4", "5")
+                    .then(() -> source.next("6", "7", "8", "9"))
+                    .then(() -> Assertions.assertEquals(2, buffer.metrics().getSpilledElements()))
+                    .then(() -> source.next("10", "11"))
+                    .then(() -> Assertions.assertEquals(4, buffer.metrics().getSpilledElements()))
+                    .thenRequest(6)
+                    .expectNext("6", "7", "8", "9", "10", "11")
+                    .then(source::complete)
+                    .verifyComplete();
+
+        Assertions.assertEquals(0, buffer.metrics().getPendingElements());
+    }
+
+    @Test
+    public void elements_bigger_than_a_block_spill_and_come_back() {
+        SpillingBuffer<String> buffer = new SpillingBuffer<>(1, dir, SpillSerializer.utf8());
+        String large = "x".repeat(300 * 1024);
+
+        StepVerifier.create(buffer.buffer(Flux.just("first", large, "middle", large + "y", "last")), 0)
+                    .then(() -> Assertions.assertEquals(4, buffer.metrics().getPendingElements()))
+                    .thenRequest(Long.MAX_VALUE)
+                    .expectNext("first", large, "middle", large + "y", "last")
+                    .verifyComplete();
+
+        long expectedBytes = 4 * Integer.BYTES + large.length() * 2L + 1 + "middle".length() + "last".length();
+        Assertions.assertEquals(expectedBytes, buffer.metrics().getSpilledBytes());
+    }
+
+    @Test
+    public void errors_come_after_everything_buffered_and_the_file_is_deleted() throws IOException {
+        SpillingBuffer<String> buffer = new SpillingBuffer<>(2, dir, SpillSerializer.utf8());
+        Flux<String> source = Flux.just("a", "b", "c", "d")
+                                  .concatWith(Flux.error(new IllegalStateException("boom")));
+
+        StepVerifier.create(buffer.buffer(source), 0)
+                    .then(() -> Assertions.assertEquals(2, buffer.metrics().getPendingElements()))
+                    .thenRequest(Long.MAX_VALUE)
+                    .expectNext("a", "b", "c", "d")
+                    .verifyErrorMessage("boom");
+
+        Assertions.assertEquals(0, buffer.metrics().getPendingElements());
+        assertNoSpillFiles();
+    }
+
+    @Test
+    public void cancelling_discards_the_spilled_elements_and_deletes_the_file() throws IOException {
+        SpillingBuffer<String> buffer = new SpillingBuffer<>(2, dir, SpillSerializer.utf8());
+        TestPublisher<String> source = TestPublisher.create();
+
+        StepVerifier.create(buffer.buffer(source.flux()), 0)
+                    .then(() -> source.next("a", "b", "c", "d", "e"))
+                    .thenRequest(1)
+                    .expectNext("a")
+                    .then(() -> Assertions.assertEquals(3, buffer.metrics().getPendingElements()))
+                    .thenCancel()
+                    .verify();
+
+        source.assertCancelled();
+        SpillingBuffer.Metrics metrics = buffer.metrics();
+        Assertions.assertEquals(0, metrics.getPendingElements());
+        Assertions.assertEquals(0, metrics.getPendingBytes());
+        Assertions.assertEquals(3, metrics.getSpilledElements());
+        assertNoSpillFiles();
+    }
+
+    @Test
+    public void a_serializer_failure_fails_the_subscription_and_cancels_upstream() {
+        SpillSerializer<String> failing = new SpillSerializer<>() {
+            @Override
+            public byte[] serialize(String value) {
+                throw new IllegalArgumentException("can't serialize " + value);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+        SpillingBuffer<String> buffer = new SpillingBuffer<>(1, dir, failing);
+        TestPublisher<String> source = TestPublisher.create();
+
+        StepVerifier.create(buffer.buffer(source.flux()), 0)
+                    .then(() -> source.next("a", "b"))
+                    .thenRequest(1)
+                    .expectNext("a")
+                    .verifyErrorMessage("can't serialize b");
+
+        source.assertCancelled();
+    }
+
+    private void assertNoSpillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            Assertions.assertEquals(0, files.count());
+        }
+    }
+}
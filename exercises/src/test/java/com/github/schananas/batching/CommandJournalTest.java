@@ -0,0 +1,43 @@
+package com.github.schananas.batching;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+public class CommandJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void reopening_does_not_reuse_acknowledged_sequence_numbers() {
+        try (CommandJournal journal = CommandJournal.open(dir, 1024 * 1024)) {
+            for (long expected = 0; expected < 3; expected++) {
+                long seq = journal.append("aggregate", "command-" + expected).block();
+                Assertions.assertEquals(expected, seq);
+                journal.acknowledge(seq).block();
+            }
+        }
+
+        try (CommandJournal journal = CommandJournal.open(dir, 1024 * 1024)) {
+            Assertions.assertEquals(0, journal.unacknowledged().count().block());
+            Assertions.assertEquals(3L, journal.append("aggregate", "command-3").block());
+        }
+    }
+
+    @Test
+    public void reopening_replays_unacknowledged_commands_and_continues_after_them() {
+        try (CommandJournal journal = CommandJournal.open(dir, 1024 * 1024)) {
+            journal.append("aggregate", "acknowledged").flatMap(journal::acknowledge).block();
+            journal.append("aggregate", "pending").block();
+            journal.append("aggregate", "acknowledged-last").flatMap(journal::acknowledge).block();
+        }
+
+        try (CommandJournal journal = CommandJournal.open(dir, 1024 * 1024)) {
+            Assertions.assertEquals(1L, journal.unacknowledged().single().block().getSeq());
+            Assertions.assertEquals(3L, journal.append("aggregate", "next").block());
+        }
+    }
+}
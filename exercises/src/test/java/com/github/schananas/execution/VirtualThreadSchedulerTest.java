@@ -0,0 +1,84 @@
+package com.github.schananas.execution;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VirtualThreadSchedulerTest {
+
+    @Test
+    public void disposing_a_running_task_interrupts_it_but_not_the_next_task() throws Exception {
+        VirtualThreadScheduler scheduler = VirtualThreadScheduler.create("test", 1);
+        try {
+            Scheduler.Worker worker = scheduler.createWorker();
+            CountDownLatch started = new CountDownLatch(1);
+            CompletableFuture<Boolean> firstInterrupted = new CompletableFuture<>();
+            CompletableFuture<Boolean> nextInterrupted = new CompletableFuture<>();
+
+            Disposable first = worker.schedule(() -> {
+                started.countDown();
+                try {
+                    Thread.sleep(10_000);
+                    firstInterrupted.complete(false);
+                } catch (InterruptedException e) {
+                    firstInterrupted.complete(true);
+                }
+            });
+            worker.schedule(() -> nextInterrupted.complete(interruptedWithin(50)));
+
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+            first.dispose();
+
+            Assertions.assertTrue(firstInterrupted.get(5, TimeUnit.SECONDS));
+            Assertions.assertFalse(nextInterrupted.get(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(first.isDisposed());
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    public void disposing_as_a_task_finishes_never_interrupts_the_next_task() throws Exception {
+        VirtualThreadScheduler scheduler = VirtualThreadScheduler.create("test", 1);
+        try {
+            Scheduler.Worker worker = scheduler.createWorker();
+            AtomicInteger interrupted = new AtomicInteger();
+            for (int i = 0; i < 2_000; i++) {
+                CountDownLatch started = new CountDownLatch(1);
+                CountDownLatch next = new CountDownLatch(1);
+                Disposable first = worker.schedule(() -> {
+                    started.countDown();
+                    // finish about when dispose() comes in
+                    Thread.onSpinWait();
+                });
+                worker.schedule(() -> {
+                    if (Thread.currentThread().isInterrupted()) {
+                        interrupted.incrementAndGet();
+                    }
+                    next.countDown();
+                });
+                started.await();
+                first.dispose();
+                Assertions.assertTrue(next.await(5, TimeUnit.SECONDS));
+            }
+            Assertions.assertEquals(0, interrupted.get());
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    private static boolean interruptedWithin(long millis) {
+        try {
+            Thread.sleep(millis);
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.github.schananas.sharding;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+public class ShardedGatewayTest {
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @AfterEach
+    public void close() throws Exception {
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+    }
+
+    @Test
+    public void items_of_a_key_reach_its_socket_worker_in_order() {
+        Map<String, List<String>> received = new ConcurrentHashMap<>();
+        ShardedGateway<String> gateway = new ShardedGateway<>(ShardedGatewayTest::keyOf, 64, Duration.ofSeconds(1));
+        for (String id : List.of("a", "b", "c")) {
+            gateway.addWorker(socketWorker(id, item -> {
+                received.computeIfAbsent(id, k -> new CopyOnWriteArrayList<>()).add(item);
+                return Mono.empty();
+            }));
+        }
+
+        Flux<String> items = Flux.range(0, 2_000).map(i -> "key-" + i % 20 + ":" + i / 20);
+        StepVerifier.create(gateway.process(items, 64))
+                    .expectComplete()
+                    .verify(Duration.ofSeconds(10));
+
+        int total = 0;
+        for (Map.Entry<String, List<String>> entry : received.entrySet()) {
+            Map<String, Integer> last = new ConcurrentHashMap<>();
+            for (String item : entry.getValue()) {
+                String key = keyOf(item);
+                Assertions.assertEquals(gateway.ownerOf(key), entry.getKey(), key + " went to the wrong worker");
+                int seq = Integer.parseInt(item.substring(item.indexOf(':') + 1));
+                Integer previous = last.put(key, seq);
+                Assertions.assertEquals(previous == null ? 0 : previous + 1, seq, "out of order for " + key);
+            }
+            total += entry.getValue().size();
+        }
+        Assertions.assertEquals(2_000, total);
+        Assertions.assertTrue(received.size() > 1, "all keys went to a single worker");
+    }
+
+    @Test
+    public void a_key_moving_to_an_added_worker_drains_on_its_old_worker_first() {
+        List<String> events = new CopyOnWriteArrayList<>();
+        ShardedGateway<String> gateway = new ShardedGateway<>(ShardedGatewayTest::keyOf, 64, Duration.ofSeconds(1));
+        gateway.addWorker(socketWorker("old", item -> Mono.delay(Duration.ofMillis(300))
+                                                          .doOnSubscribe(s -> events.add("old started " + item))
+                                                          .doOnSuccess(v -> events.add("old finished " + item))
+                                                          .then()));
+        SocketWorker<String> added = socketWorker("new", item -> Mono.fromRunnable(() -> events.add("new got " + item)));
+        String movingKey = keyMovingTo("old", "new");
+        Assertions.assertEquals("old", gateway.ownerOf(movingKey));
+
+        Sinks.Many<String> source = Sinks.many().unicast().onBackpressureBuffer();
+        StepVerifier.create(gateway.process(source.asFlux(), 16))
+                    .then(() -> source.tryEmitNext(movingKey + ":0"))
+                    .then(() -> await(() -> events.contains("old started " + movingKey + ":0"), "the first item"))
+                    .then(() -> {
+                        gateway.addWorker(added);
+                        Assertions.assertEquals("new", gateway.ownerOf(movingKey));
+                        source.tryEmitNext(movingKey + ":1");
+                        source.tryEmitComplete();
+                    })
+                    .expectComplete()
+                    .verify(Duration.ofSeconds(10));
+
+        Assertions.assertEquals(List.of("old started " + movingKey + ":0",
+                                        "old finished " + movingKey + ":0",
+                                        "new got " + movingKey + ":1"),
+                                events);
+    }
+
+    @Test
+    public void removing_a_worker_completes_once_its_in_flight_items_have() {
+        CountDownLatch started = new CountDownLatch(1);
+        Sinks.Empty<Void> release = Sinks.empty();
+        ShardedGateway<String> gateway = new ShardedGateway<>(ShardedGatewayTest::keyOf, 64, Duration.ofSeconds(1));
+        gateway.addWorker(socketWorker("only", item -> {
+            started.countDown();
+            return release.asMono();
+        }));
+
+        Disposable processing = gateway.process(Flux.just("key:0"), 16).subscribe();
+        try {
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+            AtomicBoolean drained = new AtomicBoolean();
+            gateway.removeWorker("only").subscribe(null, null, () -> drained.set(true));
+            Assertions.assertNull(gateway.ownerOf("key"));
+            Thread.sleep(100);
+            Assertions.assertFalse(drained.get());
+
+            release.tryEmitEmpty();
+            StepVerifier.create(gateway.removeWorker("only"))
+                        .expectComplete()
+                        .verify(Duration.ofSeconds(5));
+            await(drained::get, "removeWorker to complete");
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        } finally {
+            processing.dispose();
+        }
+    }
+
+    @Test
+    public void socket_worker_forgets_requests_that_failed_to_encode_or_were_cancelled() {
+        SocketWorkerServer<String> server = SocketWorkerServer.start(ShardedGatewayTest::decode, item -> Mono.never());
+        resources.add(server);
+        Function<String, byte[]> encoder = item -> {
+            if (item.equals("bad")) {
+                throw new IllegalArgumentException("can't encode");
+            }
+            return item.getBytes(StandardCharsets.UTF_8);
+        };
+        SocketWorker<String> worker = SocketWorker.connect("worker", server.address(), encoder);
+        resources.add(worker);
+
+        StepVerifier.create(worker.send("bad"))
+                    .expectErrorMessage("can't encode")
+                    .verify(Duration.ofSeconds(5));
+        Assertions.assertEquals(0, worker.pendingCount());
+
+        StepVerifier.create(worker.send("never answered"))
+                    .expectSubscription()
+                    .then(() -> await(() -> worker.pendingCount() == 1, "the request to be sent"))
+                    .thenCancel()
+                    .verify(Duration.ofSeconds(5));
+        Assertions.assertEquals(0, worker.pendingCount());
+    }
+
+    private SocketWorker<String> socketWorker(String id, Function<String, Mono<Void>> handler) {
+        SocketWorkerServer<String> server = SocketWorkerServer.start(ShardedGatewayTest::decode, handler);
+        resources.add(server);
+        SocketWorker<String> worker = SocketWorker.connect(id, server.address(), s -> s.getBytes(StandardCharsets.UTF_8));
+        resources.add(worker);
+        return worker;
+    }
+
+    /**
+     * A key that moves from {@code from} to {@code to} when {@code to} joins a ring of 64 virtual nodes per worker.
+     */
+    private static String keyMovingTo(String from, String to) {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<String>(64).with(from, from)
+                                                                            .with(to, to);
+        for (int i = 0; ; i++) {
+            String key = "key-" + i;
+            if (to.equals(ring.idFor(key))) {
+                return key;
+            }
+        }
+    }
+
+    private static String keyOf(String item) {
+        return item.substring(0, item.indexOf(':'));
+    }
+
+    private static String decode(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void await(BooleanSupplier condition, String what) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.nanoTime() < deadline, "Timed out waiting for " + what);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.github.schananas.store;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class MappedEventStoreTest {
+
+    // "record-N" for a single digit N, plus the header
+    private static final int RECORD_BYTES = Segment.HEADER_BYTES + 8;
+
+    @TempDir
+    Path dir;
+
+    private final Scheduler readScheduler = Schedulers.newSingle("store-test");
+
+    @AfterEach
+    public void disposeScheduler() {
+        readScheduler.dispose();
+    }
+
+    @Test
+    public void reopening_keeps_the_records_before_a_torn_record() throws Exception {
+        try (MappedEventStore store = open(4096, Integer.MAX_VALUE, Duration.ofDays(1))) {
+            for (int i = 0; i < 5; i++) {
+                store.append("record-" + i);
+            }
+            store.flush();
+        }
+        // record 3's length made it to disk, its payload didn't
+        overwrite(onlySegment(), 3 * RECORD_BYTES + Segment.HEADER_BYTES, new byte[8]);
+
+        try (MappedEventStore store = open(4096, Integer.MAX_VALUE, Duration.ofDays(1))) {
+            Assertions.assertEquals(3, store.nextOffset());
+            Assertions.assertEquals(3, store.append("record-x"));
+            StepVerifier.create(store.readFrom(0).map(MappedEventStore.Record::getPayloadAsString).take(4))
+                        .expectNext("record-0", "record-1", "record-2", "record-x")
+                        .verifyComplete();
+        }
+
+        // record 4, which followed the torn one, was zeroed and doesn't come back either
+        try (MappedEventStore store = open(4096, Integer.MAX_VALUE, Duration.ofDays(1))) {
+            Assertions.assertEquals(4, store.nextOffset());
+        }
+    }
+
+    @Test
+    public void reopening_ignores_a_garbage_tail() throws Exception {
+        try (MappedEventStore store = open(4096, Integer.MAX_VALUE, Duration.ofDays(1))) {
+            store.append("record-0");
+            store.append("record-1");
+            store.flush();
+        }
+        ByteBuffer garbage = ByteBuffer.allocate(16).putInt(8).putInt(12345).put("record-2".getBytes());
+        overwrite(onlySegment(), 2 * RECORD_BYTES, garbage.array());
+
+        try (MappedEventStore store = open(4096, Integer.MAX_VALUE, Duration.ofDays(1))) {
+            Assertions.assertEquals(2, store.nextOffset());
+            StepVerifier.create(store.readFrom(0).map(MappedEventStore.Record::getPayloadAsString).take(2))
+                        .expectNext("record-0", "record-1")
+                        .verifyComplete();
+        }
+    }
+
+    @Test
+    public void readers_follow_records_across_rolled_segments() {
+        try (MappedEventStore store = open(3 * RECORD_BYTES, Integer.MAX_VALUE, Duration.ofDays(1))) {
+            for (int i = 0; i < 7; i++) {
+                store.append("record-" + i);
+            }
+            Assertions.assertEquals(3, store.segmentCount());
+
+            StepVerifier.create(store.readFrom(2).map(MappedEventStore.Record::getPayloadAsString).take(7))
+                        .expectNext("record-2", "record-3", "record-4", "record-5", "record-6")
+                        .then(() -> {
+                            store.append("record-7");
+                            store.append("record-8");
+                        })
+                        .expectNext("record-7", "record-8")
+                        .expectComplete()
+                        .verify(Duration.ofSeconds(5));
+            Assertions.assertEquals(3, store.segmentCount());
+        }
+    }
+
+    @Test
+    public void reading_a_deleted_offset_fails() {
+        try (MappedEventStore store = open(3 * RECORD_BYTES, 2, Duration.ofDays(1))) {
+            for (int i = 0; i < 10; i++) {
+                store.append("record-" + i);
+            }
+            Assertions.assertEquals(2, store.segmentCount());
+            Assertions.assertEquals(6, store.firstOffset());
+
+            StepVerifier.create(store.readFrom(2))
+                        .expectErrorSatisfies(e -> {
+                            Assertions.assertInstanceOf(IllegalArgumentException.class, e);
+                            Assertions.assertEquals("Offset 2 was already deleted, first offset is 6", e.getMessage());
+                        })
+                        .verify(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    public void a_reader_that_fell_behind_retention_fails() {
+        try (MappedEventStore store = open(3 * RECORD_BYTES, 2, Duration.ofDays(1))) {
+            store.append("record-0");
+
+            StepVerifier.create(store.readFrom(0).map(MappedEventStore.Record::getPayloadAsString), 1)
+                        .expectNext("record-0")
+                        .then(() -> {
+                            for (int i = 1; i < 10; i++) {
+                                store.append("record-" + i);
+                            }
+                        })
+                        .thenRequest(10)
+                        // the reader keeps the mapping of its own segment, but the next one is gone
+                        .expectNext("record-1", "record-2")
+                        .expectErrorSatisfies(e -> {
+                            Assertions.assertInstanceOf(IllegalStateException.class, e);
+                            Assertions.assertEquals("Reader fell behind retention at offset 3, first offset is 6",
+                                                    e.getMessage());
+                        })
+                        .verify(Duration.ofSeconds(5));
+        }
+    }
+
+    @Test
+    public void old_segments_are_deleted_without_further_appends() throws Exception {
+        try (MappedEventStore store = open(3 * RECORD_BYTES, Integer.MAX_VALUE, Duration.ofMillis(100))) {
+            for (int i = 0; i < 7; i++) {
+                store.append("record-" + i);
+            }
+            Assertions.assertEquals(3, store.segmentCount());
+
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (store.segmentCount() > 1 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            Assertions.assertEquals(1, store.segmentCount());
+            Assertions.assertEquals(6, store.firstOffset());
+            Assertions.assertEquals(1, segmentFiles().size());
+        }
+    }
+
+    private MappedEventStore open(int segmentBytes, int maxSegments, Duration maxAge) {
+        return MappedEventStore.open(dir, segmentBytes, maxSegments, maxAge, 2, readScheduler);
+    }
+
+    private Path onlySegment() throws Exception {
+        List<Path> files = segmentFiles();
+        Assertions.assertEquals(1, files.size());
+        return files.get(0);
+    }
+
+    private List<Path> segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static void overwrite(Path file, long position, byte[] bytes) throws Exception {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), position);
+        }
+    }
+}